@@ -0,0 +1,97 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ledger wide table of the addresses we have seen, each mapped to a small int id the first time
+ * it shows up. Outputs and indexes keep the id instead of the address, which makes them smaller
+ * and lets ownership checks compare ints instead of strings.
+ * 
+ * The ids are only meaningful inside this process, anything hashed or sent elsewhere keeps
+ * using the address itself.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class AddressTable {
+	
+	/**
+	 * Id returned for addresses we have not seen yet.
+	 */
+	public static final int UNKNOWN = -1;
+	
+	/**
+	 * Ids of the addresses.
+	 */
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	
+	/**
+	 * Addresses indexed by id. Replaced by a bigger copy when full, and always written before
+	 * the id is published, so readers holding an id will find the address.
+	 */
+	private volatile String[] addresses = new String[64];
+	
+	/**
+	 * Number of ids handed out.
+	 */
+	private volatile int size;
+	
+	/**
+	 * Get the id of an address, assigning the next free one if we have not seen it yet.
+	 * 
+	 * @param address the address
+	 * @return the id of the address
+	 */
+	public int intern(String address) {
+		Integer id = ids.get(address);
+		if (id != null) {
+			return id;
+		}
+		
+		synchronized (this) {
+			id = ids.get(address);
+			if (id == null) {
+				id = size;
+				if (id == addresses.length) {
+					addresses = Arrays.copyOf(addresses, id * 2);
+				}
+				addresses[id] = address;
+				size = id + 1;
+				ids.put(address, id);
+			}
+			return id;
+		}
+	}
+	
+	/**
+	 * Get the id of an address without assigning one.
+	 * 
+	 * @param address the address
+	 * @return the id of the address, or {@link #UNKNOWN} if we have not seen it yet
+	 */
+	public int lookup(String address) {
+		Integer id = ids.get(address);
+		return id == null ? UNKNOWN : id;
+	}
+	
+	/**
+	 * @param id id of an address
+	 * @return the address
+	 */
+	public String address(int id) {
+		return addresses[id];
+	}
+	
+	/**
+	 * @return the number of addresses, every id is below this
+	 */
+	public int size() {
+		return size;
+	}
+
+}
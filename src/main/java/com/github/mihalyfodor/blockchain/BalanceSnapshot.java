@@ -0,0 +1,126 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * The balance of every address, calculated in a single pass over the unspent outputs.
+ * 
+ * Instead of asking each wallet for its balance, which would go through the outputs once per
+ * wallet, we go through them once in parallel. Every split of the stream adds up its values into
+ * its own array indexed by owner id, and the arrays are summed pairwise as the splits complete, so
+ * the workers never contend on a shared map. The arrays belong to the call and are dropped with it,
+ * the stream splits only a few times per core so there are not many of them to sum. The arrays grow
+ * when they meet an owner id interned after the pass started.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public final class BalanceSnapshot {
+	
+	/**
+	 * Balances indexed by owner id.
+	 */
+	private final long[] balances;
+	
+	/**
+	 * The table the owner ids come from.
+	 */
+	private final AddressTable addresses;
+	
+	private BalanceSnapshot(long[] balances, AddressTable addresses) {
+		this.balances = balances;
+		this.addresses = addresses;
+	}
+	
+	/**
+	 * Add up the outputs of every owner. The outputs must not change while this runs.
+	 * 
+	 * @param outputs the unspent outputs
+	 * @param addresses the table the owner ids of the outputs come from
+	 * @return the balances
+	 */
+	public static BalanceSnapshot of(Collection<TransactionOutput> outputs, AddressTable addresses) {
+		return of(outputs.parallelStream(), addresses);
+	}
+	
+	/**
+	 * Add up the outputs of every owner.
+	 * 
+	 * @param outputs stream of the unspent outputs, parallel to use all cores
+	 * @param addresses the table the owner ids of the outputs come from
+	 * @return the balances
+	 */
+	public static BalanceSnapshot of(Stream<TransactionOutput> outputs, AddressTable addresses) {
+		int owners = addresses.size();
+		Totals totals = outputs.collect(() -> new Totals(owners), Totals::add, Totals::merge);
+		return new BalanceSnapshot(totals.values, addresses);
+	}
+	
+	/**
+	 * The sums of one split of the stream, indexed by owner id.
+	 */
+	private static final class Totals {
+		
+		private long[] values;
+		
+		Totals(int owners) {
+			this.values = new long[owners];
+		}
+		
+		void add(int ownerId, long value) {
+			if (ownerId >= values.length) {
+				values = Arrays.copyOf(values, Math.max(ownerId + 1, 2 * values.length));
+			}
+			values[ownerId] += value;
+		}
+		
+		void add(TransactionOutput output) {
+			add(output.getOwnerId(), output.getValue());
+		}
+		
+		void merge(Totals other) {
+			if (other.values.length > values.length) {
+				values = Arrays.copyOf(values, other.values.length);
+			}
+			for (int ownerId = 0; ownerId < other.values.length; ownerId++) {
+				values[ownerId] += other.values[ownerId];
+			}
+		}
+	}
+	
+	/**
+	 * @param address the address
+	 * @return the balance of the address, 0 if it has no unspent outputs
+	 */
+	public long getBalance(String address) {
+		return getBalance(addresses.lookup(address));
+	}
+	
+	/**
+	 * @param ownerId id of the address
+	 * @return the balance of the address, 0 if it has no unspent outputs
+	 */
+	public long getBalance(int ownerId) {
+		return ownerId >= 0 && ownerId < balances.length ? balances[ownerId] : 0;
+	}
+	
+	/**
+	 * Hand over the balances one by one, skipping the addresses without coins.
+	 * 
+	 * @param consumer receives each address with its balance
+	 */
+	public void forEach(ObjLongConsumer<String> consumer) {
+		for (int ownerId = 0; ownerId < balances.length; ownerId++) {
+			if (balances[ownerId] != 0) {
+				consumer.accept(addresses.address(ownerId), balances[ownerId]);
+			}
+		}
+	}
+
+}
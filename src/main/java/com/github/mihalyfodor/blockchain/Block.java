@@ -5,7 +5,10 @@ package com.github.mihalyfodor.blockchain;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
 
 import com.google.common.hash.Hashing;
 
@@ -15,10 +18,17 @@ import com.google.common.hash.Hashing;
  * Besides this strucutre any data can be stored on a block. That will be a
  * simple string from now.
  * 
+ * The transactions are committed to through the root of a Merkle tree, so each of them can be
+ * proven to be part of the block without the others.
+ * 
  * @author Mihaly Fodor
  */
 public class Block {
 	
+	/**
+	 * Serialized size of the header: the two hashes, the Merkle root, the timestamp and the delta.
+	 */
+	public static final int HEADER_SIZE = 32 + 32 + 32 + 8 + 4;
 	
 
 	/**
@@ -33,6 +43,16 @@ public class Block {
 
 	private List<Transaction> transactions = new ArrayList<>();
 	
+	/**
+	 * Size and transaction count limits of the block.
+	 */
+	private final BlockLimits limits;
+	
+	/**
+	 * Serialized size of the transactions added so far, so checking the limits stays cheap.
+	 */
+	private int transactionBytes;
+	
 	/**
 	 * Timestamp of when the block was created. Used in generating the digital signature.
 	 */
@@ -42,9 +62,19 @@ public class Block {
 	 * Small flag we use to generate a different hash when mining.
 	 */
 	private int delta;
+	
+	/**
+	 * Merkle root of the transactions that were dropped by pruning, null while we still have them.
+	 */
+	private String prunedMerkleRoot;
 
 	public Block(String previousHash) {
+		this(previousHash, BlockLimits.DEFAULT);
+	}
+	
+	public Block(String previousHash, BlockLimits limits) {
 		this.previousHash = previousHash;
+		this.limits = limits;
 		this.timestamp = System.currentTimeMillis();
 		this.hash = calculateHash();
 	}
@@ -53,15 +83,85 @@ public class Block {
 	 * One way of generating a digital signature is using a SHA-256 algorithm. Instead of implementing one
 	 * ourselves, we are using the one from google. 
 	 * 
-	 * The new signature is based on the previous hash, the data, and the timestamp of the block's creation.
+	 * The new signature is based on the previous hash, the Merkle root of the transactions, and the
+	 * timestamp of the block's creation.
 	 * 
 	 * @return
 	 */
 	public String calculateHash() {
-		return Hashing.sha256().hashString(previousHash + transactions.hashCode() + timestamp + delta, StandardCharsets.UTF_8)
+		return calculateHash(previousHash, getMerkleRoot(), timestamp, delta);
+	}
+	
+	/**
+	 * Calculate the hash of a block from its header fields. Shared with {@link BlockHeader}, so light
+	 * clients can check blocks without their transactions.
+	 */
+	static String calculateHash(String previousHash, String merkleRoot, long timestamp, int delta) {
+		return Hashing.sha256().hashString(previousHash + merkleRoot + timestamp + delta, StandardCharsets.UTF_8)
 				.toString();
 	}
 	
+	/**
+	 * @return root of the Merkle tree built over the ids of our transactions
+	 */
+	public String getMerkleRoot() {
+		if (prunedMerkleRoot != null) {
+			return prunedMerkleRoot;
+		}
+		return MerkleTree.root(getTransactionIds()).toString();
+	}
+	
+	/**
+	 * Create the proof that a transaction is part of this block.
+	 * 
+	 * @param transactionId the transaction we are looking for
+	 * @return the proof, or null if the transaction is not in this block
+	 */
+	public MerkleProof getMerkleProof(String transactionId) {
+		List<String> transactionIds = getTransactionIds();
+		int index = transactionIds.indexOf(transactionId);
+		return index < 0 ? null : MerkleTree.proof(hash, transactionIds, index);
+	}
+	
+	/**
+	 * Create a copy of the block without its transactions. The copy keeps the Merkle root of the
+	 * dropped transactions, so its hash, its link to the previous block and its proof of work can
+	 * still be verified.
+	 * 
+	 * @return the pruned copy
+	 */
+	public Block prune() {
+		Block pruned = new Block(previousHash, limits);
+		pruned.timestamp = timestamp;
+		pruned.delta = delta;
+		pruned.prunedMerkleRoot = getMerkleRoot();
+		pruned.transactions = Collections.emptyList();
+		pruned.hash = hash;
+		return pruned;
+	}
+	
+	/**
+	 * @return the transactions of the block were dropped or not
+	 */
+	public boolean isPruned() {
+		return prunedMerkleRoot != null;
+	}
+	
+	/**
+	 * @return the header of the block, everything but the transactions
+	 */
+	public BlockHeader getHeader() {
+		return new BlockHeader(hash, previousHash, getMerkleRoot(), timestamp, delta);
+	}
+	
+	private List<String> getTransactionIds() {
+		List<String> transactionIds = new ArrayList<>(transactions.size());
+		for (Transaction transaction : transactions) {
+			transactionIds.add(transaction.getTransactionId());
+		}
+		return transactionIds;
+	}
+	
 	/**
 	 * Mining a Block using Proof of Work.
 	 * 
@@ -70,23 +170,56 @@ public class Block {
 	 * number of leading zeroes.
 	 */
 	public void mineBlock() {
+		mineBlock(() -> false);
+	}
+	
+	/**
+	 * Mining a Block using Proof of Work, giving up as soon as the abort condition holds. This lets
+	 * the {@link MiningService} drop a block whose parent is no longer the tip of the chain.
+	 * 
+	 * @param abort checked before every new hash attempt
+	 * @return true if the block was mined, false if mining was aborted
+	 */
+	public boolean mineBlock(BooleanSupplier abort) {
 		System.out.println("Mining block ");
+		// the transactions don't change while mining, no need to rebuild the tree for every attempt
+		String merkleRoot = getMerkleRoot();
 		while(!hash.substring( 0, Blockchain.LEADING_ZEROES.length()).equals(Blockchain.LEADING_ZEROES)) {
+			if (abort.getAsBoolean()) {
+				System.out.println("Mining aborted");
+				return false;
+			}
 			delta ++;
-			hash = calculateHash();
+			hash = calculateHash(previousHash, merkleRoot, timestamp, delta);
 		}
 		System.out.println("Block Mined!!! : " + hash);
-		
+		return true;
 	}
 	
 	/**
-	 * Add a transaction to the block and mine it. Won't work if the transaction fails when processing
-	 * or we are attempting to add a transaction to the genesis block.
+	 * Add a transaction to the block and mine it. Won't work if the transaction fails when processing,
+	 * the block is already full or we are attempting to add a transaction to the genesis block.
 	 * 
 	 * @param transaction the transaction we are adding.
 	 * @return transaction processing and adding successful not
 	 */
 	public boolean addTransaction(Transaction transaction) {
+		return addTransaction(transaction, Transaction::processTransaction);
+	}
+	
+	/**
+	 * Add a transaction to the block, checking it with a validator instead of processing it, so the
+	 * unspent outputs of the process are left alone. Used by the nodes, which keep their own.
+	 * 
+	 * @param transaction the transaction we are adding
+	 * @param validator the validator of this block
+	 * @return the transaction was valid and added or not
+	 */
+	public boolean addTransaction(Transaction transaction, BlockValidator validator) {
+		return addTransaction(transaction, validator::accept);
+	}
+	
+	private boolean addTransaction(Transaction transaction, Predicate<Transaction> process) {
 		
 		System.out.println("Adding transaction to block");
 		
@@ -94,18 +227,55 @@ public class Block {
 			return false;
 		}
 		
+		// check before processing, a transaction we can't take must not touch the unspent outputs
+		if (!fits(transaction)) {
+			System.out.println("Block is full");
+			return false;
+		}
+		
 		boolean isGenesisBlock = previousHash.equals(Blockchain.GENESIS_HASH);
-		boolean transactionSuccesful = transaction.processTransaction();
+		boolean transactionSuccesful = !isGenesisBlock && process.test(transaction);
 		
 		if ( isGenesisBlock || !transactionSuccesful ) {
 			return false;
 		}
 		
 		transactions.add(transaction);
+		transactionBytes += transaction.getSerializedSize();
 		
 		return true;
 	}
 	
+	/**
+	 * @param transaction the transaction we would like to add
+	 * @return the block stays within its limits with the transaction added or not
+	 */
+	public boolean fits(Transaction transaction) {
+		return limits.allows(transactions.size() + 1, HEADER_SIZE + transactionBytes + transaction.getSerializedSize());
+	}
+	
+	/**
+	 * Check the block against its limits. Blocks put together with {@link #addTransaction} always
+	 * are, the ones whose transactions were set directly, like the blocks received from peers,
+	 * have to be checked.
+	 * 
+	 * @return the block is within its limits or not
+	 */
+	public boolean isWithinLimits() {
+		return limits.allows(transactions.size(), getSerializedSize());
+	}
+	
+	/**
+	 * @return size of the block when serialized, header included
+	 */
+	public int getSerializedSize() {
+		int size = HEADER_SIZE;
+		for (Transaction transaction : transactions) {
+			size += transaction.getSerializedSize();
+		}
+		return size;
+	}
+	
 	/**
 	 * @return the hash
 	 */
@@ -142,10 +312,34 @@ public class Block {
 	}
 
 	/**
+	 * Replace the transactions, without checking them against the limits, see {@link #isWithinLimits()}.
+	 * 
 	 * @param transactions the transactions to set
 	 */
 	public void setTransactions(List<Transaction> transactions) {
 		this.transactions = transactions;
+		this.transactionBytes = getSerializedSize() - HEADER_SIZE;
+	}
+
+	/**
+	 * @return the delta
+	 */
+	public int getDelta() {
+		return delta;
+	}
+
+	/**
+	 * @param delta the delta to set
+	 */
+	public void setDelta(int delta) {
+		this.delta = delta;
+	}
+
+	/**
+	 * @return the limits
+	 */
+	public BlockLimits getLimits() {
+		return limits;
 	}
 
 	/**
@@ -0,0 +1,146 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Builds blocks from a pool of waiting transactions.
+ * 
+ * The block can only hold so many bytes, so we pack it greedily by weight: transactions moving the
+ * most coins per serialized byte go first, and whatever does not fit in the remaining space is
+ * skipped in favour of smaller ones.
+ * 
+ * A transaction can spend the outputs of another one waiting in the pool, and may be sorted ahead
+ * of it. If its inputs are not there yet it is tried again every time a transaction gets into the
+ * block, as that transaction may have created them.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class BlockAssembler {
+	
+	/**
+	 * Most valuable transactions first, the value being the coins moved per byte.
+	 */
+	private static final Comparator<Transaction> BY_VALUE_PER_BYTE = Comparator.comparingDouble(
+			(Transaction transaction) -> (double) transaction.getValue() / transaction.getSerializedSize()).reversed();
+	
+	/**
+	 * Limits of the blocks we build.
+	 */
+	private final BlockLimits limits;
+	
+	public BlockAssembler(BlockLimits limits) {
+		this.limits = limits;
+	}
+	
+	/**
+	 * Build a new block on top of the given one. Transactions added to the block or invalid are
+	 * removed from the pool, the ones that did not fit stay there for the next block. So do the
+	 * ones whose inputs are missing while some transaction was left out, the inputs may be the
+	 * outputs of that one.
+	 * 
+	 * @param previousHash hash of the block we are building on
+	 * @param pool transactions waiting to get into a block
+	 * @return the block, ready to be mined
+	 */
+	public Block assemble(String previousHash, List<Transaction> pool) {
+		Block block = new Block(previousHash, limits);
+		fill(block, pool, block::addTransaction);
+		return block;
+	}
+	
+	/**
+	 * Build a new block on top of the given one like {@link #assemble(String, List)}, but check the
+	 * transactions against the unspent outputs after that block instead of processing them. Nothing
+	 * changes until the block is added to a chain, so a block that is never mined or loses to
+	 * another leaves no trace.
+	 * 
+	 * @param previousHash hash of the block we are building on
+	 * @param pool transactions waiting to get into a block
+	 * @param unspentOutputs the unspent outputs after the block we are building on
+	 * @return the block, ready to be mined
+	 */
+	public Block assemble(String previousHash, List<Transaction> pool, UtxoSnapshot unspentOutputs) {
+		Block block = new Block(previousHash, limits);
+		BlockValidator validator = new BlockValidator(unspentOutputs);
+		fill(block, pool, transaction -> block.addTransaction(transaction, validator));
+		return block;
+	}
+	
+	/**
+	 * Add the transactions of the pool to the block, most valuable first.
+	 * 
+	 * @param add adds a transaction to the block, false if it is not valid right now
+	 */
+	private void fill(Block block, List<Transaction> pool, Predicate<Transaction> add) {
+		
+		List<Transaction> candidates = new ArrayList<>(pool);
+		candidates.sort(BY_VALUE_PER_BYTE);
+		
+		Set<Transaction> taken = new HashSet<>();
+		List<Transaction> waiting = new ArrayList<>();
+		boolean leftOut = false;
+		Iterator<Transaction> iterator = candidates.iterator();
+		while (iterator.hasNext()) {
+			Transaction transaction = iterator.next();
+			
+			if (block.getTransactions().size() >= limits.getMaxTransactions() || !block.fits(transaction)) {
+				leftOut = true;
+				continue;
+			}
+			
+			if (add.test(transaction)) {
+				taken.add(transaction);
+				addWaiting(block, waiting, taken, add);
+			} else if (!transaction.veifySignature()) {
+				taken.add(transaction);
+			} else {
+				waiting.add(transaction);
+			}
+		}
+		
+		// with nothing left out, no transaction of the pool is going to create the missing inputs
+		if (!leftOut) {
+			taken.addAll(waiting);
+		}
+		
+		// one pass over the pool, removing them one at a time would scan it for each
+		pool.removeAll(taken);
+	}
+
+	/**
+	 * Add the waiting transactions that can be added now, until none of them can.
+	 */
+	private static void addWaiting(Block block, List<Transaction> waiting, Set<Transaction> taken, Predicate<Transaction> add) {
+		boolean added = true;
+		while (added) {
+			added = false;
+			Iterator<Transaction> iterator = waiting.iterator();
+			while (iterator.hasNext()) {
+				Transaction transaction = iterator.next();
+				if (block.fits(transaction) && add.test(transaction)) {
+					iterator.remove();
+					taken.add(transaction);
+					added = true;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the limits
+	 */
+	public BlockLimits getLimits() {
+		return limits;
+	}
+
+}
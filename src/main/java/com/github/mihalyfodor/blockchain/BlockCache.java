@@ -0,0 +1,139 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps recently used blocks and transactions decoded in memory, in front of a {@link BlockStore}.
+ * 
+ * Most reads go to the last few hundred blocks, so keeping those around saves decoding them again
+ * and again. Both caches are bounded by the serialized size of what they hold rather than by the
+ * number of entries, and evict the least recently used entries first. Blocks disconnected by a
+ * reorganization must be invalidated, so nobody reads them as part of the chain anymore. Each
+ * {@link Node} reads its chain through one, invalidating the blocks it leaves behind when it
+ * switches to another branch.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class BlockCache {
+	
+	/**
+	 * Where the blocks and transactions are loaded from on a miss.
+	 */
+	private final BlockStore store;
+	
+	/**
+	 * Blocks keyed by hash.
+	 */
+	private final Cache<String, Block> blocks;
+	
+	/**
+	 * Transactions keyed by id.
+	 */
+	private final Cache<String, Transaction> transactions;
+	
+	/**
+	 * Create a cache with separate size limits for the blocks and the transactions.
+	 * 
+	 * @param store storage to load from
+	 * @param maxBlockBytes maximum serialized size of the cached blocks
+	 * @param maxTransactionBytes maximum serialized size of the cached transactions
+	 */
+	public BlockCache(BlockStore store, long maxBlockBytes, long maxTransactionBytes) {
+		this.store = store;
+		// a single segment, otherwise the budget is split up and big blocks can't be cached at all
+		this.blocks = CacheBuilder.newBuilder()
+				.concurrencyLevel(1)
+				.maximumWeight(maxBlockBytes)
+				.weigher((String hash, Block block) -> block.getSerializedSize())
+				.recordStats()
+				.build();
+		this.transactions = CacheBuilder.newBuilder()
+				.concurrencyLevel(1)
+				.maximumWeight(maxTransactionBytes)
+				.weigher((String transactionId, Transaction transaction) -> transaction.getSerializedSize())
+				.recordStats()
+				.build();
+	}
+	
+	/**
+	 * @param hash hash of the block
+	 * @return the block, or null if the store does not have it either
+	 */
+	public Block getBlock(String hash) {
+		return get(blocks, hash, () -> store.loadBlock(hash));
+	}
+	
+	/**
+	 * @param transactionId id of the transaction
+	 * @return the transaction, or null if the store does not have it either
+	 */
+	public Transaction getTransaction(String transactionId) {
+		return get(transactions, transactionId, () -> store.loadTransaction(transactionId));
+	}
+	
+	/**
+	 * Get an entry, loading it on a miss. Concurrent misses for the same key wait for a single
+	 * load instead of each going to the store.
+	 * 
+	 * @return the entry, or null if the store does not have it, in which case nothing is cached
+	 */
+	private static <V> V get(Cache<String, V> cache, String key, Callable<V> loader) {
+		try {
+			return cache.get(key, loader);
+		} catch (InvalidCacheLoadException e) {
+			// the loader returned null
+			return null;
+		} catch (ExecutionException e) {
+			throw new UncheckedExecutionException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Drop the blocks disconnected by a reorganization, along with their transactions.
+	 * 
+	 * @param disconnected the blocks no longer on the chain
+	 */
+	public void invalidate(Collection<Block> disconnected) {
+		for (Block block : disconnected) {
+			blocks.invalidate(block.getHash());
+			for (Transaction transaction : block.getTransactions()) {
+				transactions.invalidate(transaction.getTransactionId());
+			}
+		}
+	}
+	
+	/**
+	 * Drop everything.
+	 */
+	public void invalidateAll() {
+		blocks.invalidateAll();
+		transactions.invalidateAll();
+	}
+	
+	/**
+	 * @return hit, miss, load and eviction counts of the blocks
+	 */
+	public CacheStats getBlockStats() {
+		return blocks.stats();
+	}
+	
+	/**
+	 * @return hit, miss, load and eviction counts of the transactions
+	 */
+	public CacheStats getTransactionStats() {
+		return transactions.stats();
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+/**
+ * The part of a block that goes into its hash. The transactions are only represented by their
+ * Merkle root, which is enough for light clients to follow the chain and check proofs of work
+ * without downloading any transactions.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public final class BlockHeader {
+	
+	/**
+	 * Digital signature of the block.
+	 */
+	private final String hash;
+	
+	/**
+	 * Digital signature of the previous block.
+	 */
+	private final String previousHash;
+	
+	/**
+	 * Root of the Merkle tree built over the transactions of the block.
+	 */
+	private final String merkleRoot;
+	
+	/**
+	 * Timestamp of when the block was created.
+	 */
+	private final long timestamp;
+	
+	/**
+	 * The value found when mining the block.
+	 */
+	private final int delta;
+	
+	public BlockHeader(String hash, String previousHash, String merkleRoot, long timestamp, int delta) {
+		this.hash = hash;
+		this.previousHash = previousHash;
+		this.merkleRoot = merkleRoot;
+		this.timestamp = timestamp;
+		this.delta = delta;
+	}
+	
+	/**
+	 * Regenerate the hash of the block, same as {@link Block#calculateHash()}.
+	 * 
+	 * @return the hash
+	 */
+	public String calculateHash() {
+		return Block.calculateHash(previousHash, merkleRoot, timestamp, delta);
+	}
+
+	/**
+	 * @return the hash
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the previousHash
+	 */
+	public String getPreviousHash() {
+		return previousHash;
+	}
+
+	/**
+	 * @return the merkleRoot
+	 */
+	public String getMerkleRoot() {
+		return merkleRoot;
+	}
+
+	/**
+	 * @return the timestamp
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the delta
+	 */
+	public int getDelta() {
+		return delta;
+	}
+
+}
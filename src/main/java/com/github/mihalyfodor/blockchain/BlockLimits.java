@@ -0,0 +1,62 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Upper bounds on the size of a block. Keeping blocks bounded keeps the time needed to hash,
+ * validate and send them around predictable.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public final class BlockLimits {
+	
+	/**
+	 * Limits used when none are given.
+	 */
+	public static final BlockLimits DEFAULT = new BlockLimits(1_000_000, 10_000);
+	
+	/**
+	 * Maximum serialized size of a block, header included.
+	 */
+	private final int maxBytes;
+	
+	/**
+	 * Maximum number of transactions in a block.
+	 */
+	private final int maxTransactions;
+	
+	public BlockLimits(int maxBytes, int maxTransactions) {
+		checkArgument(maxBytes > Block.HEADER_SIZE, "maxBytes must leave room for the header");
+		checkArgument(maxTransactions > 0, "maxTransactions must be positive");
+		this.maxBytes = maxBytes;
+		this.maxTransactions = maxTransactions;
+	}
+	
+	/**
+	 * @param transactionCount number of transactions in the block
+	 * @param blockBytes serialized size of the block
+	 * @return the block is within the limits or not
+	 */
+	public boolean allows(int transactionCount, int blockBytes) {
+		return transactionCount <= maxTransactions && blockBytes <= maxBytes;
+	}
+
+	/**
+	 * @return the maxBytes
+	 */
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the maxTransactions
+	 */
+	public int getMaxTransactions() {
+		return maxTransactions;
+	}
+
+}
@@ -0,0 +1,31 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * A way of doing the proof of work for a block.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public interface BlockMiner {
+	
+	/**
+	 * The plain way, one hash at a time, see {@link Block#mineBlock(BooleanSupplier)}.
+	 */
+	BlockMiner SCALAR = (block, abort) -> block.mineBlock(abort);
+	
+	/**
+	 * Find a delta that gives the block a hash with the required leading zeroes, and set it on
+	 * the block along with the hash.
+	 * 
+	 * @param block the block to mine
+	 * @param abort checked regularly, mining stops when it holds
+	 * @return true if the block was mined, false if mining was aborted
+	 */
+	boolean mine(Block block, BooleanSupplier abort);
+
+}
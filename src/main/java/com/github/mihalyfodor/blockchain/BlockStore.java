@@ -0,0 +1,26 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+/**
+ * Storage the blocks are loaded from once they no longer live in memory.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public interface BlockStore {
+	
+	/**
+	 * @param hash hash of the block
+	 * @return the decoded block, or null if it is not stored
+	 */
+	Block loadBlock(String hash);
+	
+	/**
+	 * @param transactionId id of the transaction
+	 * @return the decoded transaction, or null if it is not stored
+	 */
+	Transaction loadTransaction(String transactionId);
+
+}
@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks the transactions of a block one by one against the unspent outputs of the block it is
+ * built on, without changing them. The outputs created by the transactions accepted so far can be
+ * spent by the later ones, and no output can be spent twice within the block.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class BlockValidator {
+
+	/**
+	 * The unspent outputs after the previous block.
+	 */
+	private final UtxoSnapshot unspentOutputs;
+
+	/**
+	 * Outputs created by the transactions accepted so far, keyed by id.
+	 */
+	private final Map<String, TransactionOutput> created = new HashMap<>();
+
+	/**
+	 * Ids of the outputs spent by the transactions accepted so far.
+	 */
+	private final Set<String> spent = new HashSet<>();
+
+	/**
+	 * @param unspentOutputs the unspent outputs after the previous block
+	 */
+	public BlockValidator(UtxoSnapshot unspentOutputs) {
+		this.unspentOutputs = unspentOutputs;
+	}
+
+	/**
+	 * Check the next transaction of the block, and take its changes into account for the ones after.
+	 * 
+	 * @param transaction the transaction
+	 * @return the transaction is valid or not, an invalid one leaves nothing behind
+	 */
+	public boolean accept(Transaction transaction) {
+		if (!transaction.verify(this::get)) {
+			return false;
+		}
+		for (TransactionInput input : transaction.getInputs()) {
+			spent.add(input.getTransactionOutputId());
+		}
+		for (TransactionOutput output : transaction.getOutputs()) {
+			created.put(output.getId(), output);
+		}
+		return true;
+	}
+
+	/**
+	 * Check every transaction of a block.
+	 * 
+	 * @param block the block
+	 * @return all of them are valid or not
+	 */
+	public boolean acceptAll(Block block) {
+		for (Transaction transaction : block.getTransactions()) {
+			if (!accept(transaction)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private TransactionOutput get(String id) {
+		if (spent.contains(id)) {
+			return null;
+		}
+		TransactionOutput output = created.get(id);
+		return output != null ? output : unspentOutputs.get(id);
+	}
+
+}
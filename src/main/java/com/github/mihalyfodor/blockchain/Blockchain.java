@@ -4,27 +4,54 @@
 package com.github.mihalyfodor.blockchain;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The Blockchain containing our Blocks.
  * 
+ * The chain is also the {@link BlockStore} of its blocks and transactions: finding one by hash or
+ * id means going through the blocks from the tip back, so readers go through a {@link BlockCache}.
+ * 
  * @author Mihaly Fodor
  *
  */
-public class Blockchain {
+public class Blockchain implements BlockStore {
 	
 	/**
 	 * Storing our blocks in a list.
 	 */
 	private List<Block> blockchain = new ArrayList<Block>();
 	
+	/**
+	 * Read only view of the chain, replaced by a new one with every block added.
+	 */
+	private volatile LedgerSnapshot snapshot = LedgerSnapshot.EMPTY;
+	
+	/**
+	 * Transactions of each address, for balance queries at earlier heights.
+	 */
+	private final HistoryIndex history = new HistoryIndex();
+	
+	/**
+	 * Number of most recent blocks kept with their transactions when pruning, 0 to keep all of them.
+	 */
+	private int pruneDepth;
+	
+	/**
+	 * Every block below this height has already been pruned.
+	 */
+	private int prunedHeight;
+	
 	/**
 	 * Keeping track of all the transaction outputs that have not been spent.
 	 */
-	public static Map<String, TransactionOutput> unspentTransactionOutputs = new HashMap<String, TransactionOutput>();
+	public static final UtxoSet unspentTransactionOutputs = new UtxoSet();
+	
+	/**
+	 * The addresses seen by the ledger, mapped to the ids used by the outputs.
+	 */
+	public static final AddressTable addresses = new AddressTable();
 	
 	/**
 	 * The hash code of the very first transaction that we create.
@@ -42,9 +69,11 @@ public class Blockchain {
 	 * 
 	 * @return genesis block
 	 */
-	public Block initializeChain() {
+	public synchronized Block initializeChain() {
 		Block genesisBlock = new Block(Blockchain.GENESIS_HASH);
 		blockchain.add(genesisBlock);
+		history.addBlock(blockchain.size() - 1, genesisBlock);
+		snapshot = snapshot.apply(genesisBlock);
 		return genesisBlock;
 	}
 	
@@ -60,7 +89,7 @@ public class Blockchain {
 	 * 
 	 * @return the block created for the transaction
 	 */
-	public Block addOriginTransaction(Wallet originWallet, Wallet targetWallet, int coins) {
+	public synchronized Block addOriginTransaction(Wallet originWallet, Wallet targetWallet, int coins) {
 		
 		System.out.println("creating origin cash");
 		
@@ -70,11 +99,15 @@ public class Blockchain {
 		
 		TransactionOutput genesisOutput = new TransactionOutput(genesisTransaction.getRecipient(), genesisTransaction.getValue(), genesisTransaction.getTransactionId());
 		genesisTransaction.getOutputs().add(genesisOutput);
-		Blockchain.unspentTransactionOutputs.put(genesisOutput.getId(), genesisOutput);
+		Blockchain.unspentTransactionOutputs.add(genesisOutput);
+		Blockchain.unspentTransactionOutputs.commit();
 		
 		Block genesisBlock = new Block(Blockchain.GENESIS_HASH);
 		genesisBlock.getTransactions().add(genesisTransaction);
+		genesisBlock.setHash(genesisBlock.calculateHash());
 		this.blockchain.add(genesisBlock);
+		this.history.addBlock(blockchain.size() - 1, genesisBlock);
+		this.snapshot = snapshot.apply(genesisBlock);
 		
 		return genesisBlock;
 	}
@@ -87,10 +120,150 @@ public class Blockchain {
 	 */
 	public Block addBlock(Block block) {
 		block.mineBlock();
+		return appendBlock(block);
+	}
+	
+	/**
+	 * Add a block that was already mined to the end of the chain.
+	 * 
+	 * @param block the mined block
+	 * @return the newly added block
+	 */
+	public synchronized Block appendBlock(Block block) {
 		blockchain.add(block);
+		history.addBlock(blockchain.size() - 1, block);
+		// the pruning goes into the same snapshot as the block
+		LedgerSnapshot next = snapshot.apply(block);
+		if (pruneDepth > 0) {
+			next = next.prune(pruneBlocks());
+		}
+		snapshot = next;
 		return block;
 	}
 	
+	/**
+	 * Drop the transactions of the blocks deeper than the prune depth, keeping only their headers.
+	 * Their outputs are not lost: the unspent ones live on in the unspent output set, independently
+	 * of the blocks that created them. Runs on its own after every block once a depth is set.
+	 * 
+	 * @return the number of blocks pruned
+	 */
+	public synchronized int prune() {
+		List<Block> pruned = pruneBlocks();
+		snapshot = snapshot.prune(pruned);
+		return pruned.size();
+	}
+	
+	/**
+	 * Prune the blocks of the list that got deeper than the prune depth since the last time.
+	 * 
+	 * @return the pruned copies of those blocks, in order
+	 */
+	private List<Block> pruneBlocks() {
+		int pruneBelow = blockchain.size() - pruneDepth;
+		if (pruneDepth <= 0 || pruneBelow <= prunedHeight) {
+			return Collections.emptyList();
+		}
+		
+		List<Block> pruned = new ArrayList<>();
+		for (int height = prunedHeight; height < pruneBelow; height++) {
+			Block block = blockchain.get(height).prune();
+			blockchain.set(height, block);
+			pruned.add(block);
+		}
+		prunedHeight = pruneBelow;
+		
+		System.out.println("Pruned " + pruned.size() + " blocks");
+		return pruned;
+	}
+	
+	/**
+	 * Get a consistent view of the chain and the unspent outputs as of the last block added. The view
+	 * never changes, so it can be read without locking while new blocks are being added.
+	 * 
+	 * @return the current snapshot
+	 */
+	public LedgerSnapshot snapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * @return the last block of the chain, or null if the chain is empty
+	 */
+	public Block getLatestBlock() {
+		return snapshot.getLatestBlock();
+	}
+	
+	
+	/**
+	 * Collect the headers of the blocks, for light clients to sync.
+	 * 
+	 * @param fromHeight position of the first block we need the header for
+	 * @return the headers from the given height on
+	 */
+	public List<BlockHeader> getHeaders(int fromHeight) {
+		List<Block> blocks = snapshot.getBlocks();
+		List<BlockHeader> headers = new ArrayList<>();
+		for (int height = fromHeight; height < blocks.size(); height++) {
+			headers.add(blocks.get(height).getHeader());
+		}
+		return headers;
+	}
+	
+	/**
+	 * Find the block holding a transaction and create the proof of its inclusion, for light clients
+	 * to verify their payments against the headers.
+	 * 
+	 * @param transactionId the transaction we are looking for
+	 * @return the proof, or null if the transaction is not on the chain
+	 */
+	public MerkleProof getMerkleProof(String transactionId) {
+		for (Block block : snapshot.getBlocks()) {
+			MerkleProof proof = block.getMerkleProof(transactionId);
+			if (proof != null) {
+				return proof;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Find a block of the chain by hash, starting from the tip. Pruned blocks are found as pruned.
+	 * 
+	 * @param hash hash of the block
+	 * @return the block, or null if it is not on the chain
+	 */
+	@Override
+	public Block loadBlock(String hash) {
+		List<Block> blocks = snapshot.getBlocks();
+		for (int height = blocks.size() - 1; height >= 0; height--) {
+			Block block = blocks.get(height);
+			if (block.getHash().equals(hash)) {
+				return block;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Find a transaction of the chain by id, starting from the tip. The transactions of pruned blocks
+	 * are gone.
+	 * 
+	 * @param transactionId id of the transaction
+	 * @return the transaction, or null if it is not on the chain
+	 */
+	@Override
+	public Transaction loadTransaction(String transactionId) {
+		List<Block> blocks = snapshot.getBlocks();
+		for (int height = blocks.size() - 1; height >= 0; height--) {
+			for (Transaction transaction : blocks.get(height).getTransactions()) {
+				if (transaction.getTransactionId().equals(transactionId)) {
+					return transaction;
+				}
+			}
+		}
+		return null;
+	}
 	
 	/**
 	 * Validate the chain. If we have just the genesis block, that is valid. Otherwise we 
@@ -98,10 +271,24 @@ public class Blockchain {
 	 * - the hashcode needs to be able to be regenerated
 	 * - the prevHash codes need to be continuous
 	 * - the block must have been mined if not genesis block
+	 * - the block must stay within its size and transaction count limits
+	 * Pruned blocks are checked the same way, their hash covers the Merkle root they kept.
+	 * 
+	 * The blocks are taken from the current snapshot, so validating does not hold up new blocks.
 	 * 
 	 * @return chain validity
 	 */
 	public Boolean isChainValid() {
+		return isChainValid(snapshot.getBlocks());
+	}
+	
+	/**
+	 * Validate a list of blocks, as described at {@link #isChainValid()}.
+	 * 
+	 * @param blockchain the blocks, in chain order
+	 * @return chain validity
+	 */
+	static boolean isChainValid(List<Block> blockchain) {
 		
 		if (blockchain.size() <= 1) {
 			return true;
@@ -126,7 +313,7 @@ public class Blockchain {
 			// also each block must have been mined for the chain to be valid
 			boolean hashMinedCorrectly = currentBlock.getHash().substring( 0, Blockchain.LEADING_ZEROES.length()).equals(Blockchain.LEADING_ZEROES);
 			
-			if (!currentHashCorrect || !prevHashCorrect || !hashMinedCorrectly) {
+			if (!currentHashCorrect || !prevHashCorrect || !hashMinedCorrectly || !currentBlock.isWithinLimits()) {
 				return false;
 			}
 			
@@ -137,6 +324,32 @@ public class Blockchain {
 	}
 
 	/**
+	 * @return the history of every address, indexed by block height
+	 */
+	public HistoryIndex getHistory() {
+		return history;
+	}
+
+	/**
+	 * @return the number of most recent blocks kept with their transactions, 0 if we keep all
+	 */
+	public int getPruneDepth() {
+		return pruneDepth;
+	}
+
+	/**
+	 * Turn on pruning, keeping the transactions of the given number of most recent blocks.
+	 * 
+	 * @param pruneDepth the number of blocks to keep whole, 0 to turn pruning off
+	 */
+	public synchronized void setPruneDepth(int pruneDepth) {
+		this.pruneDepth = pruneDepth;
+	}
+
+	/**
+	 * The list the blocks are added to. Readers running next to the thread adding blocks should
+	 * use {@link #snapshot()} instead.
+	 * 
 	 * @return the blockchain
 	 */
 	public List<Block> getBlockchain() {
@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Probabilistic set membership with support for removals.
+ * 
+ * Every key bumps a handful of counters picked by its hash. If any of the counters of a key is
+ * zero the key is certainly not in the set, otherwise it probably is. Unlike a plain Bloom filter
+ * the counters can be decremented, so keys can be removed again. Counters that reach their maximum
+ * stay there, which keeps the filter free of false negatives at the price of a few more false
+ * positives.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class CountingBloomFilter {
+	
+	private static final int MAX_COUNT = 0xFF;
+	
+	private static final HashFunction HASH = Hashing.murmur3_128();
+	
+	/**
+	 * One unsigned 8 bit counter per slot.
+	 */
+	private final byte[] counters;
+	
+	/**
+	 * Number of counters touched by each key.
+	 */
+	private final int hashFunctions;
+	
+	/**
+	 * Size the filter for the expected number of keys and the accepted false positive rate.
+	 * 
+	 * @param expectedKeys number of keys we expect to hold at once
+	 * @param falsePositiveRate probability of a missing key passing the filter
+	 */
+	public CountingBloomFilter(int expectedKeys, double falsePositiveRate) {
+		checkArgument(expectedKeys > 0, "expectedKeys must be positive");
+		checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1, "falsePositiveRate must be between 0 and 1");
+		
+		double ln2 = Math.log(2);
+		int slots = (int) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2));
+		this.counters = new byte[Math.max(slots, 64)];
+		this.hashFunctions = Math.max(1, (int) Math.round((double) counters.length / expectedKeys * ln2));
+	}
+	
+	/**
+	 * @param key the key to add
+	 */
+	public void add(String key) {
+		ByteBuffer hash = hash(key);
+		long hash1 = hash.getLong(0);
+		long hash2 = hash.getLong(8) | 1;
+		for (int i = 0; i < hashFunctions; i++) {
+			int slot = slot(hash1, hash2, i);
+			int count = counters[slot] & MAX_COUNT;
+			if (count < MAX_COUNT) {
+				counters[slot] = (byte) (count + 1);
+			}
+		}
+	}
+	
+	/**
+	 * Remove a key. Must only be called for keys that were added.
+	 * 
+	 * @param key the key to remove
+	 */
+	public void remove(String key) {
+		ByteBuffer hash = hash(key);
+		long hash1 = hash.getLong(0);
+		long hash2 = hash.getLong(8) | 1;
+		for (int i = 0; i < hashFunctions; i++) {
+			int slot = slot(hash1, hash2, i);
+			int count = counters[slot] & MAX_COUNT;
+			// saturated counters lost track of how many keys they hold, so they stay as they are
+			if (count > 0 && count < MAX_COUNT) {
+				counters[slot] = (byte) (count - 1);
+			}
+		}
+	}
+	
+	/**
+	 * @param key the key to look for
+	 * @return false if the key is certainly not in the set, true if it might be
+	 */
+	public boolean mightContain(String key) {
+		ByteBuffer hash = hash(key);
+		long hash1 = hash.getLong(0);
+		long hash2 = hash.getLong(8) | 1;
+		for (int i = 0; i < hashFunctions; i++) {
+			if (counters[slot(hash1, hash2, i)] == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * The two halves of the 128 bit hash are combined into as many slots as we need. The second
+	 * half is made odd, so every step moves to a different slot.
+	 */
+	private static ByteBuffer hash(String key) {
+		return ByteBuffer.wrap(HASH.hashString(key, StandardCharsets.UTF_8).asBytes());
+	}
+	
+	private int slot(long hash1, long hash2, int i) {
+		return (int) Math.floorMod(hash1 + i * hash2, (long) counters.length);
+	}
+
+}
@@ -0,0 +1,30 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+/**
+ * When the {@link WriteAheadLog} forces its writes to disk.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public enum FsyncPolicy {
+	
+	/**
+	 * Fsync every group commit. A commit only returns once its records are on disk.
+	 */
+	ALWAYS,
+	
+	/**
+	 * Fsync at most once per interval. A commit returns once its records were handed to the
+	 * operating system, a crash of the machine can lose the last interval.
+	 */
+	PERIODIC,
+	
+	/**
+	 * Never fsync, leave flushing to the operating system.
+	 */
+	NEVER
+
+}
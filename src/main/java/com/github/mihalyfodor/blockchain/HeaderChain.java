@@ -0,0 +1,124 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headers only view of the chain, for light clients doing simplified payment verification.
+ * 
+ * Instead of the blocks and the unspent outputs we only keep the block headers. They are enough to
+ * verify the chain itself, and together with a {@link MerkleProof} from a full node to check that
+ * a payment made it into a block.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class HeaderChain {
+	
+	/**
+	 * The headers, in chain order.
+	 */
+	private final List<BlockHeader> headers = new ArrayList<>();
+	
+	/**
+	 * Position of each header in the chain, keyed by block hash.
+	 */
+	private final Map<String, Integer> heights = new HashMap<>();
+	
+	/**
+	 * Add a header to the end of the chain. Besides the genesis header, it has to point to our
+	 * last header, its hash has to be regenerated correctly and it must have been mined.
+	 * 
+	 * @param header the header to add
+	 * @return header accepted or not
+	 */
+	public boolean addHeader(BlockHeader header) {
+		
+		boolean hashCorrect = header.getHash().equals(header.calculateHash());
+		
+		if (headers.isEmpty()) {
+			if (!header.getPreviousHash().equals(Blockchain.GENESIS_HASH) || !hashCorrect) {
+				return false;
+			}
+		} else {
+			boolean prevHashCorrect = getLatestHeader().getHash().equals(header.getPreviousHash());
+			boolean hashMinedCorrectly = header.getHash().startsWith(Blockchain.LEADING_ZEROES);
+			
+			if (!hashCorrect || !prevHashCorrect || !hashMinedCorrectly) {
+				return false;
+			}
+		}
+		
+		heights.put(header.getHash(), headers.size());
+		headers.add(header);
+		return true;
+	}
+	
+	/**
+	 * Download the headers we are missing from a full node.
+	 * 
+	 * @param blockchain the full node's chain
+	 * @return the number of headers added
+	 */
+	public int sync(Blockchain blockchain) {
+		int added = 0;
+		for (BlockHeader header : blockchain.getHeaders(headers.size())) {
+			if (!addHeader(header)) {
+				break;
+			}
+			added++;
+		}
+		return added;
+	}
+	
+	/**
+	 * Check that a transaction is part of a block we know about.
+	 * 
+	 * @param proof the proof received from a full node
+	 * @return the transaction was included or not
+	 */
+	public boolean verifyTransaction(MerkleProof proof) {
+		Integer height = heights.get(proof.getBlockHash());
+		if (height == null) {
+			return false;
+		}
+		return proof.verify(headers.get(height).getMerkleRoot());
+	}
+	
+	/**
+	 * @param blockHash hash of a block
+	 * @return number of blocks on top of and including the block, 0 if we don't know it
+	 */
+	public int getConfirmations(String blockHash) {
+		Integer height = heights.get(blockHash);
+		return height == null ? 0 : headers.size() - height;
+	}
+	
+	/**
+	 * @return the last header, or null if we have none
+	 */
+	public BlockHeader getLatestHeader() {
+		return headers.isEmpty() ? null : headers.get(headers.size() - 1);
+	}
+	
+	/**
+	 * @return the number of headers we have
+	 */
+	public int getHeight() {
+		return headers.size();
+	}
+
+	/**
+	 * @return the headers
+	 */
+	public List<BlockHeader> getHeaders() {
+		return Collections.unmodifiableList(headers);
+	}
+
+}
@@ -0,0 +1,56 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+/**
+ * One transaction in the history of an address: where it happened and how it changed the balance.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public final class HistoryEntry {
+	
+	/**
+	 * Height of the block holding the transaction.
+	 */
+	private final int height;
+	
+	/**
+	 * The transaction.
+	 */
+	private final String transactionId;
+	
+	/**
+	 * Coins received minus coins spent by the address in the transaction.
+	 */
+	private final long delta;
+	
+	public HistoryEntry(int height, String transactionId, long delta) {
+		this.height = height;
+		this.transactionId = transactionId;
+		this.delta = delta;
+	}
+
+	/**
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the transactionId
+	 */
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * @return the delta
+	 */
+	public long getDelta() {
+		return delta;
+	}
+
+}
@@ -0,0 +1,134 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only index of the transactions of every address, built as blocks are added.
+ * 
+ * Each address gets its own columns: block heights, transaction ids, balance changes, and the
+ * running balance after each entry. The entries are appended in chain order, so the heights are
+ * sorted and the balance at any height is a binary search away, without replaying the chain.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class HistoryIndex {
+	
+	/**
+	 * History of each address, keyed by address id.
+	 */
+	private final Map<Integer, AddressHistory> histories = new HashMap<>();
+	
+	/**
+	 * Record the transactions of a block. Blocks must be added in chain order.
+	 * 
+	 * @param height height of the block
+	 * @param block the block
+	 */
+	public synchronized void addBlock(int height, Block block) {
+		for (Transaction transaction : block.getTransactions()) {
+			
+			// an address can show up on both sides, we only want one entry with the net change
+			Map<Integer, Long> deltas = new LinkedHashMap<>();
+			for (TransactionInput input : transaction.getInputs()) {
+				TransactionOutput spent = input.getUnspentTransactionOutput();
+				if (spent != null) {
+					deltas.merge(spent.getOwnerId(), (long) -spent.getValue(), Long::sum);
+				}
+			}
+			for (TransactionOutput output : transaction.getOutputs()) {
+				deltas.merge(output.getOwnerId(), (long) output.getValue(), Long::sum);
+			}
+			
+			for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+				histories.computeIfAbsent(delta.getKey(), key -> new AddressHistory())
+						.append(height, transaction.getTransactionId(), delta.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * @param address the address
+	 * @param height height of a block
+	 * @return balance of the address right after the block
+	 */
+	public synchronized long getBalance(String address, int height) {
+		AddressHistory history = histories.get(Blockchain.addresses.lookup(address));
+		return history == null ? 0 : history.balanceAt(height);
+	}
+	
+	/**
+	 * @param address the address
+	 * @return the transactions of the address, oldest first
+	 */
+	public synchronized List<HistoryEntry> getTransactions(String address) {
+		AddressHistory history = histories.get(Blockchain.addresses.lookup(address));
+		return history == null ? new ArrayList<>() : history.entries();
+	}
+	
+	/**
+	 * The columns of a single address.
+	 */
+	private static class AddressHistory {
+		
+		private int size;
+		
+		private int[] heights = new int[4];
+		
+		private String[] transactionIds = new String[4];
+		
+		private long[] deltas = new long[4];
+		
+		/**
+		 * Prefix sums of the deltas.
+		 */
+		private long[] balances = new long[4];
+		
+		void append(int height, String transactionId, long delta) {
+			if (size == heights.length) {
+				int capacity = size * 2;
+				heights = Arrays.copyOf(heights, capacity);
+				transactionIds = Arrays.copyOf(transactionIds, capacity);
+				deltas = Arrays.copyOf(deltas, capacity);
+				balances = Arrays.copyOf(balances, capacity);
+			}
+			heights[size] = height;
+			transactionIds[size] = transactionId;
+			deltas[size] = delta;
+			balances[size] = (size == 0 ? 0 : balances[size - 1]) + delta;
+			size++;
+		}
+		
+		long balanceAt(int height) {
+			// find the first entry above the height, the balance we need is the one before it
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (heights[middle] <= height) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low == 0 ? 0 : balances[low - 1];
+		}
+		
+		List<HistoryEntry> entries() {
+			List<HistoryEntry> entries = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				entries.add(new HistoryEntry(heights[i], transactionIds[i], deltas[i]));
+			}
+			return entries;
+		}
+	}
+
+}
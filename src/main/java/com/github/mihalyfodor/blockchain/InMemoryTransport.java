@@ -0,0 +1,115 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Passes messages between nodes of the same process through queues, one per node.
+ * 
+ * Every node gets a thread taking its messages off its queue. A fixed latency can be added to
+ * every message, so propagation through the network takes some time like it would between
+ * machines. Messages are handed over as they are, nothing is encoded.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class InMemoryTransport implements Transport {
+
+	/**
+	 * How long every message takes to arrive.
+	 */
+	private final long latencyNanos;
+
+	/**
+	 * Queue of each node, keyed by node id.
+	 */
+	private final Map<String, BlockingQueue<Delivery>> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * Thread of each node, delivering its messages.
+	 */
+	private final Map<String, Thread> threads = new ConcurrentHashMap<>();
+
+	private volatile boolean closed;
+
+	public InMemoryTransport() {
+		this(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param latency how long every message takes to arrive
+	 * @param unit unit of the latency
+	 */
+	public InMemoryTransport(long latency, TimeUnit unit) {
+		this.latencyNanos = unit.toNanos(latency);
+	}
+
+	@Override
+	public void bind(String nodeId, Consumer<Message> receiver) {
+		BlockingQueue<Delivery> queue = new LinkedBlockingQueue<>();
+		if (queues.putIfAbsent(nodeId, queue) != null) {
+			throw new IllegalStateException("Node already bound: " + nodeId);
+		}
+
+		Thread thread = new Thread(() -> deliver(queue, receiver), "node-" + nodeId);
+		thread.setDaemon(true);
+		threads.put(nodeId, thread);
+		thread.start();
+	}
+
+	@Override
+	public void send(String nodeId, Message message) {
+		BlockingQueue<Delivery> queue = queues.get(nodeId);
+		if (queue == null) {
+			throw new IllegalArgumentException("Unknown node: " + nodeId);
+		}
+		// every message has the same latency, so the queue stays ordered by arrival time
+		queue.add(new Delivery(System.nanoTime() + latencyNanos, message));
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (Thread thread : threads.values()) {
+			thread.interrupt();
+		}
+	}
+
+	private void deliver(BlockingQueue<Delivery> queue, Consumer<Message> receiver) {
+		try {
+			while (!closed) {
+				Delivery delivery = queue.take();
+				long wait = delivery.arrival - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				receiver.accept(delivery.message);
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * A message along with the time it is due.
+	 */
+	private static final class Delivery {
+
+		private final long arrival;
+
+		private final Message message;
+
+		Delivery(long arrival, Message message) {
+			this.arrival = arrival;
+			this.message = message;
+		}
+	}
+
+}
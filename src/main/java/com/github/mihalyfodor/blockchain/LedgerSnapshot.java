@@ -0,0 +1,200 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent, read only view of the ledger pinned at a block height: the blocks up to that height
+ * and the unspent outputs as they were right after the last of them.
+ * 
+ * The blockchain publishes a new snapshot every time a block is added, and never changes the ones
+ * already handed out. Readers can take one and query it for as long as they like without locking,
+ * while blocks keep being added.
+ * 
+ * The pruned blocks and the ones still whole are kept in separate arrays, both shared with the
+ * later snapshots of the same chain, which only ever write past the part we use. Pruning appends
+ * to the first, and the whole blocks that got pruned are dropped from the second once they take up
+ * as much room as the ones still whole, by copying the rest to a new array. Adding a block costs
+ * the same however long the chain grows, pruned or not.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public final class LedgerSnapshot {
+	
+	/**
+	 * The snapshot of an empty chain.
+	 */
+	public static final LedgerSnapshot EMPTY = new LedgerSnapshot(new Block[0], 0, new Block[0], 0, 0, UtxoSnapshot.EMPTY);
+	
+	/**
+	 * The pruned blocks, at their height. The empty snapshot has no room, so every chain gets its
+	 * own array.
+	 */
+	private final Block[] pruned;
+	
+	/**
+	 * Number of pruned blocks in this snapshot, every block below this height is pruned.
+	 */
+	private final int prunedHeight;
+	
+	/**
+	 * The blocks from {@link #offset} on, the ones below {@link #prunedHeight} only kept around
+	 * until the array is compacted.
+	 */
+	private final Block[] recent;
+	
+	/**
+	 * Height of the first block of {@link #recent}.
+	 */
+	private final int offset;
+	
+	/**
+	 * Number of blocks in this snapshot.
+	 */
+	private final int height;
+	
+	/**
+	 * The unspent outputs after the last block.
+	 */
+	private final UtxoSnapshot unspentOutputs;
+	
+	private LedgerSnapshot(Block[] pruned, int prunedHeight, Block[] recent, int offset, int height,
+			UtxoSnapshot unspentOutputs) {
+		this.pruned = pruned;
+		this.prunedHeight = prunedHeight;
+		this.recent = recent;
+		this.offset = offset;
+		this.height = height;
+		this.unspentOutputs = unspentOutputs;
+	}
+	
+	/**
+	 * Create the snapshot with one more block. Must only be called on the latest snapshot, by the
+	 * single thread adding blocks.
+	 * 
+	 * @param block the block added to the chain
+	 * @return the new snapshot
+	 */
+	LedgerSnapshot apply(Block block) {
+		Block[] next = recent;
+		int nextOffset = offset;
+		if (height - offset == recent.length) {
+			// drop the whole blocks already pruned if they take up at least half, grow otherwise
+			int dropped = prunedHeight - offset;
+			int live = height - prunedHeight;
+			next = new Block[dropped >= live ? Math.max(16, live * 2) : Math.max(16, recent.length * 2)];
+			System.arraycopy(recent, dropped, next, 0, live);
+			nextOffset = prunedHeight;
+		}
+		next[height - nextOffset] = block;
+		return new LedgerSnapshot(pruned, prunedHeight, next, nextOffset, height + 1, unspentOutputs.apply(block));
+	}
+	
+	/**
+	 * Create a snapshot at the same height with the next blocks pruned. Must only be called on the
+	 * latest snapshot, by the single thread adding blocks. The earlier snapshots keep the whole
+	 * blocks they had.
+	 * 
+	 * @param blocks the pruned copies of the blocks from {@link #getPrunedHeight()} on, in order
+	 * @return the new snapshot
+	 */
+	LedgerSnapshot prune(List<Block> blocks) {
+		if (blocks.isEmpty()) {
+			return this;
+		}
+		int nextPrunedHeight = prunedHeight + blocks.size();
+		Block[] next = nextPrunedHeight <= pruned.length ? pruned
+				: Arrays.copyOf(pruned, Math.max(Math.max(16, nextPrunedHeight), pruned.length * 2));
+		for (int i = 0; i < blocks.size(); i++) {
+			next[prunedHeight + i] = blocks.get(i);
+		}
+		return new LedgerSnapshot(next, nextPrunedHeight, recent, offset, height, unspentOutputs);
+	}
+	
+	/**
+	 * Validate the blocks of the snapshot, the same way as {@link Blockchain#isChainValid()}.
+	 * 
+	 * @return chain validity
+	 */
+	public boolean isChainValid() {
+		return Blockchain.isChainValid(getBlocks());
+	}
+	
+	/**
+	 * @param address the address
+	 * @return the balance of the address at this height
+	 */
+	public long getBalance(String address) {
+		int ownerId = Blockchain.addresses.lookup(address);
+		long balance = 0;
+		for (TransactionOutput output : unspentOutputs.values()) {
+			if (output.isOwnedBy(ownerId)) {
+				balance = balance + output.getValue();
+			}
+		}
+		return balance;
+	}
+	
+	/**
+	 * @return the last block, or null if the chain is empty
+	 */
+	public Block getLatestBlock() {
+		return height == 0 ? null : getBlock(height - 1);
+	}
+	
+	/**
+	 * @param blockHeight height of the block, below the height of the snapshot
+	 * @return the block, pruned if it was pruned as of this snapshot
+	 */
+	public Block getBlock(int blockHeight) {
+		return blockHeight < prunedHeight ? pruned[blockHeight] : recent[blockHeight - offset];
+	}
+	
+	/**
+	 * @return the blocks
+	 */
+	public List<Block> getBlocks() {
+		return new AbstractList<Block>() {
+			
+			@Override
+			public Block get(int index) {
+				if (index < 0 || index >= height) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", height: " + height);
+				}
+				return getBlock(index);
+			}
+			
+			@Override
+			public int size() {
+				return height;
+			}
+		};
+	}
+
+	/**
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the number of pruned blocks, every block below this height is pruned
+	 */
+	public int getPrunedHeight() {
+		return prunedHeight;
+	}
+
+	/**
+	 * @return the unspentOutputs
+	 */
+	public UtxoSnapshot getUnspentOutputs() {
+		return unspentOutputs;
+	}
+
+}
@@ -0,0 +1,272 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Passes messages between nodes over sockets on the loopback interface.
+ * 
+ * Every node listens on a port of its own, and messages to it go over a single connection opened
+ * the first time one is sent. Messages are encoded as JSON and framed by their length, so unlike
+ * with the {@link InMemoryTransport} they really are copied, the receiver never shares objects
+ * with the sender. Outputs are sent with the address of their recipient, the id it has in the
+ * address table of the sender means nothing to the receiver.
+ * 
+ * The sender only encodes the message and puts it on the queue of the receiving node, a thread of
+ * its own writes the queue to the connection. Sending never waits for the socket, so a node can
+ * send while handling a message without waiting on, or deadlocking with, a peer that is busy
+ * sending to it.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class LoopbackTransport implements Transport {
+
+	private final Gson gson = new GsonBuilder()
+			.registerTypeAdapter(TransactionOutput.class, new TransactionOutputAdapter().nullSafe())
+			.create();
+
+	/**
+	 * Server socket of each node, keyed by node id.
+	 */
+	private final Map<String, ServerSocket> servers = new ConcurrentHashMap<>();
+
+	/**
+	 * Encoded messages waiting to be written to each node, keyed by node id.
+	 */
+	private final Map<String, BlockingQueue<byte[]>> outboxes = new ConcurrentHashMap<>();
+
+	/**
+	 * Every socket opened, so they can all be closed.
+	 */
+	private final Queue<Socket> sockets = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The threads writing the outboxes, so they can all be stopped.
+	 */
+	private final Queue<Thread> writers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Bytes written to the sockets, length prefixes included.
+	 */
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private volatile boolean closed;
+
+	@Override
+	public void bind(String nodeId, Consumer<Message> receiver) {
+		ServerSocket server;
+		try {
+			server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not listen for node " + nodeId, e);
+		}
+		if (servers.putIfAbsent(nodeId, server) != null) {
+			closeQuietly(server);
+			throw new IllegalStateException("Node already bound: " + nodeId);
+		}
+
+		// messages from every connection are handed over one at a time, as the transport promises
+		Object receiveLock = new Object();
+		startThread("accept-" + nodeId, () -> accept(server, message -> {
+			synchronized (receiveLock) {
+				receiver.accept(message);
+			}
+		}));
+	}
+
+	@Override
+	public void send(String nodeId, Message message) {
+		if (!servers.containsKey(nodeId)) {
+			throw new IllegalArgumentException("Unknown node: " + nodeId);
+		}
+		// encoded right away, the message may change once we return
+		outboxes.computeIfAbsent(nodeId, this::startWriter).add(encode(message));
+	}
+
+	/**
+	 * @param message a message
+	 * @return the message as it goes on the wire, without the length
+	 */
+	byte[] encode(Message message) {
+		return gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param payload a message as it came off the wire, without the length
+	 * @return the message
+	 */
+	Message decode(byte[] payload) {
+		return gson.fromJson(new String(payload, StandardCharsets.UTF_8), Message.class);
+	}
+
+	/**
+	 * @return bytes written to the sockets so far, as encoded
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (ServerSocket server : servers.values()) {
+			closeQuietly(server);
+		}
+		for (Thread writer : writers) {
+			writer.interrupt();
+		}
+		for (Socket socket : sockets) {
+			closeQuietly(socket);
+		}
+	}
+
+	private BlockingQueue<byte[]> startWriter(String nodeId) {
+		BlockingQueue<byte[]> outbox = new LinkedBlockingQueue<>();
+		writers.add(startThread("write-" + nodeId, () -> write(nodeId, outbox)));
+		return outbox;
+	}
+
+	/**
+	 * Write the messages of an outbox to the connection of the node, until the transport is closed.
+	 */
+	private void write(String nodeId, BlockingQueue<byte[]> outbox) {
+		try {
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), servers.get(nodeId).getLocalPort());
+			socket.setTcpNoDelay(true);
+			sockets.add(socket);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			while (!closed) {
+				byte[] payload = outbox.take();
+				out.writeInt(payload.length);
+				out.write(payload);
+				bytesSent.addAndGet(4 + payload.length);
+				// messages queued up meanwhile go out with the same flush
+				if (outbox.isEmpty()) {
+					out.flush();
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (IOException e) {
+			if (!closed) {
+				throw new UncheckedIOException("Could not send to node " + nodeId, e);
+			}
+		}
+	}
+
+	private void accept(ServerSocket server, Consumer<Message> receiver) {
+		while (!closed) {
+			try {
+				Socket socket = server.accept();
+				sockets.add(socket);
+				startThread("read-" + socket.getPort(), () -> read(socket, receiver));
+			} catch (IOException e) {
+				// the server socket was closed
+				return;
+			}
+		}
+	}
+
+	private void read(Socket socket, Consumer<Message> receiver) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+			while (!closed) {
+				byte[] payload = new byte[in.readInt()];
+				in.readFully(payload);
+				receiver.accept(decode(payload));
+			}
+		} catch (EOFException | SocketException e) {
+			// the other side or the transport was closed
+		} catch (IOException e) {
+			if (!closed) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private static Thread startThread(String name, Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			// nothing left to do with it
+		}
+	}
+
+	/**
+	 * Writes outputs with the address of the recipient, and creates them again from it on the
+	 * receiving side.
+	 */
+	private static final class TransactionOutputAdapter extends TypeAdapter<TransactionOutput> {
+
+		@Override
+		public void write(JsonWriter out, TransactionOutput output) throws IOException {
+			out.beginObject();
+			out.name("recipient").value(output.getRecipient());
+			out.name("value").value(output.getValue());
+			out.name("originTransactionId").value(output.getOriginTransactionId());
+			out.endObject();
+		}
+
+		@Override
+		public TransactionOutput read(JsonReader in) throws IOException {
+			String recipient = null;
+			int value = 0;
+			String originTransactionId = null;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+				} else if (name.equals("recipient")) {
+					recipient = in.nextString();
+				} else if (name.equals("value")) {
+					value = in.nextInt();
+				} else if (name.equals("originTransactionId")) {
+					originTransactionId = in.nextString();
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return new TransactionOutput(recipient, value, originTransactionId);
+		}
+	}
+
+}
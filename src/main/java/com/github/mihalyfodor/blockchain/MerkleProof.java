@@ -0,0 +1,128 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+/**
+ * Proof that a transaction is part of a block. Holds one sibling hash for every level of the
+ * block's Merkle tree, so its size grows with the logarithm of the number of transactions.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public final class MerkleProof {
+	
+	/**
+	 * Hash of the block the transaction is in.
+	 */
+	private final String blockHash;
+	
+	/**
+	 * The transaction we are proving.
+	 */
+	private final String transactionId;
+	
+	/**
+	 * Position of the transaction in the block, telling on which side the siblings are.
+	 */
+	private final int index;
+	
+	/**
+	 * Number of transactions in the block, telling which levels the transaction has no sibling on.
+	 */
+	private final int size;
+	
+	/**
+	 * Sibling hashes from the leaf level up to just below the root.
+	 */
+	private final List<HashCode> siblings;
+	
+	public MerkleProof(String blockHash, String transactionId, int index, int size, List<HashCode> siblings) {
+		this.blockHash = blockHash;
+		this.transactionId = transactionId;
+		this.index = index;
+		this.size = size;
+		this.siblings = ImmutableList.copyOf(siblings);
+	}
+	
+	/**
+	 * Rebuild the Merkle root from the transaction and the sibling hashes.
+	 * 
+	 * @return the root this proof leads to, or null if the siblings don't fit a block of this size
+	 */
+	public HashCode computeRoot() {
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		
+		HashCode node = MerkleTree.leaf(transactionId);
+		Iterator<HashCode> remaining = siblings.iterator();
+		int position = index;
+		int levelSize = size;
+		
+		while (levelSize > 1) {
+			// the last node of an odd level has no sibling, it moves up as it is
+			if ((position ^ 1) < levelSize) {
+				if (!remaining.hasNext()) {
+					return null;
+				}
+				HashCode sibling = remaining.next();
+				node = (position & 1) == 0 ? MerkleTree.combine(node, sibling) : MerkleTree.combine(sibling, node);
+			}
+			position = position >> 1;
+			levelSize = (levelSize + 1) / 2;
+		}
+		return remaining.hasNext() ? null : node;
+	}
+	
+	/**
+	 * @param merkleRoot the Merkle root from the block header
+	 * @return the transaction is part of the block or not
+	 */
+	public boolean verify(String merkleRoot) {
+		HashCode root = computeRoot();
+		return root != null && root.toString().equals(merkleRoot);
+	}
+
+	/**
+	 * @return the blockHash
+	 */
+	public String getBlockHash() {
+		return blockHash;
+	}
+
+	/**
+	 * @return the transactionId
+	 */
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * @return the index
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the number of transactions in the block
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the siblings
+	 */
+	public List<HashCode> getSiblings() {
+		return siblings;
+	}
+
+}
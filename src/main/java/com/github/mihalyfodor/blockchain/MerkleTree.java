@@ -0,0 +1,134 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * Helper for building Merkle trees over the transactions of a block.
+ * 
+ * The leaves are the hashes of the transaction ids, every parent is the hash of its two children.
+ * If a level has an odd number of nodes the last one is moved up a level as it is, it is never
+ * paired with itself. Leaves and parents are hashed with different prefixes, so a leaf can't pass
+ * for a parent either. Together this means no two different transaction lists share a root, a
+ * list with its last transaction repeated included. The root ends up in the block header, so a
+ * single transaction can be proven to be part of a block with at most one sibling hash per level,
+ * instead of the whole transaction list.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public final class MerkleTree {
+	
+	/**
+	 * Root of a block without any transactions.
+	 */
+	public static final HashCode EMPTY_ROOT = Hashing.sha256().hashString("", StandardCharsets.UTF_8);
+	
+	/**
+	 * Hashed in front of every leaf.
+	 */
+	private static final byte LEAF_PREFIX = 0;
+	
+	/**
+	 * Hashed in front of the children of every parent.
+	 */
+	private static final byte PARENT_PREFIX = 1;
+	
+	private MerkleTree() {
+	}
+	
+	/**
+	 * Calculate the Merkle root of a list of transactions.
+	 * 
+	 * @param transactionIds ids of the transactions, in block order
+	 * @return the root hash
+	 */
+	public static HashCode root(List<String> transactionIds) {
+		
+		if (transactionIds.isEmpty()) {
+			return EMPTY_ROOT;
+		}
+		
+		List<HashCode> level = leaves(transactionIds);
+		while (level.size() > 1) {
+			level = parents(level);
+		}
+		return level.get(0);
+	}
+	
+	/**
+	 * Create the inclusion proof of a transaction, made of the sibling hashes on the path from
+	 * its leaf to the root.
+	 * 
+	 * @param blockHash hash of the block holding the transactions
+	 * @param transactionIds ids of the transactions, in block order
+	 * @param index position of the transaction we are proving
+	 * @return the proof
+	 */
+	public static MerkleProof proof(String blockHash, List<String> transactionIds, int index) {
+		
+		List<HashCode> siblings = new ArrayList<>();
+		List<HashCode> level = leaves(transactionIds);
+		int position = index;
+		
+		while (level.size() > 1) {
+			int sibling = position ^ 1;
+			// the last node of an odd level has no sibling, it moves up as it is
+			if (sibling < level.size()) {
+				siblings.add(level.get(sibling));
+			}
+			level = parents(level);
+			position = position >> 1;
+		}
+		
+		return new MerkleProof(blockHash, transactionIds.get(index), index, transactionIds.size(), siblings);
+	}
+	
+	/**
+	 * @param transactionId id of a transaction
+	 * @return the leaf hash of the transaction
+	 */
+	static HashCode leaf(String transactionId) {
+		return Hashing.sha256().newHasher()
+				.putByte(LEAF_PREFIX)
+				.putString(transactionId, StandardCharsets.UTF_8)
+				.hash();
+	}
+	
+	/**
+	 * @param left the left child
+	 * @param right the right child
+	 * @return hash of the parent node
+	 */
+	static HashCode combine(HashCode left, HashCode right) {
+		return Hashing.sha256().newHasher()
+				.putByte(PARENT_PREFIX)
+				.putBytes(left.asBytes())
+				.putBytes(right.asBytes())
+				.hash();
+	}
+	
+	private static List<HashCode> leaves(List<String> transactionIds) {
+		List<HashCode> leaves = new ArrayList<>(transactionIds.size());
+		for (String transactionId : transactionIds) {
+			leaves.add(leaf(transactionId));
+		}
+		return leaves;
+	}
+	
+	private static List<HashCode> parents(List<HashCode> level) {
+		List<HashCode> parents = new ArrayList<>((level.size() + 1) / 2);
+		for (int i = 0; i < level.size(); i += 2) {
+			parents.add(i + 1 < level.size() ? combine(level.get(i), level.get(i + 1)) : level.get(i));
+		}
+		return parents;
+	}
+
+}
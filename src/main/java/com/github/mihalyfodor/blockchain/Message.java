@@ -0,0 +1,170 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What nodes send each other over a {@link Transport}.
+ * 
+ * There is a single message class for every kind of message, only the fields the kind needs are
+ * set. This keeps it simple to encode for the loopback sockets.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public final class Message {
+
+	/**
+	 * Size of a transaction id on the wire, the 32 byte hash it is the hex form of.
+	 */
+	public static final int TRANSACTION_ID_SIZE = 32;
+
+	public enum Type {
+
+		/**
+		 * A new transaction, with the transaction in it.
+		 */
+		TRANSACTION,
+
+		/**
+		 * A new block, with its header and every transaction.
+		 */
+		BLOCK,
+
+		/**
+		 * A new block, with its header and only the ids of its transactions.
+		 */
+		COMPACT_BLOCK,
+
+		/**
+		 * Asking for the transactions of a compact block the receiver did not have, by id.
+		 */
+		GET_TRANSACTIONS,
+
+		/**
+		 * The answer to {@link #GET_TRANSACTIONS}, with the transactions asked for.
+		 */
+		TRANSACTIONS
+	}
+
+	private final Type type;
+
+	/**
+	 * Id of the node sending the message.
+	 */
+	private final String sender;
+
+	/**
+	 * Hash of the block the message is about, null for transactions.
+	 */
+	private final String blockHash;
+
+	/**
+	 * Header of the block, only for blocks and compact blocks.
+	 */
+	private final BlockHeader header;
+
+	private final List<String> transactionIds;
+
+	private final List<Transaction> transactions;
+
+	private Message(Type type, String sender, String blockHash, BlockHeader header, List<String> transactionIds,
+			List<Transaction> transactions) {
+		this.type = type;
+		this.sender = sender;
+		this.blockHash = blockHash;
+		this.header = header;
+		this.transactionIds = transactionIds;
+		this.transactions = transactions;
+	}
+
+	public static Message transaction(String sender, Transaction transaction) {
+		return new Message(Type.TRANSACTION, sender, null, null, Collections.emptyList(),
+				Collections.singletonList(transaction));
+	}
+
+	public static Message block(String sender, Block block) {
+		return new Message(Type.BLOCK, sender, block.getHash(), block.getHeader(), Collections.emptyList(),
+				new ArrayList<>(block.getTransactions()));
+	}
+
+	public static Message compactBlock(String sender, Block block) {
+		List<String> transactionIds = new ArrayList<>();
+		for (Transaction transaction : block.getTransactions()) {
+			transactionIds.add(transaction.getTransactionId());
+		}
+		return new Message(Type.COMPACT_BLOCK, sender, block.getHash(), block.getHeader(), transactionIds,
+				Collections.emptyList());
+	}
+
+	public static Message getTransactions(String sender, String blockHash, List<String> transactionIds) {
+		return new Message(Type.GET_TRANSACTIONS, sender, blockHash, null, transactionIds, Collections.emptyList());
+	}
+
+	public static Message transactions(String sender, String blockHash, List<Transaction> transactions) {
+		return new Message(Type.TRANSACTIONS, sender, blockHash, null, Collections.emptyList(), transactions);
+	}
+
+	/**
+	 * Estimated size of the message on the wire, the same way blocks and transactions are sized for
+	 * the block limits. It does not depend on how the transport encodes the message, so runs over
+	 * different transports can be compared.
+	 * 
+	 * @return the size in bytes
+	 */
+	public int getSize() {
+		int size = header == null ? 0 : Block.HEADER_SIZE;
+		size += TRANSACTION_ID_SIZE * transactionIds.size();
+		for (Transaction transaction : transactions) {
+			size += transaction.getSerializedSize();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the id of the sending node
+	 */
+	public String getSender() {
+		return sender;
+	}
+
+	/**
+	 * @return the block hash
+	 */
+	public String getBlockHash() {
+		return blockHash;
+	}
+
+	/**
+	 * @return the header
+	 */
+	public BlockHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the transaction ids
+	 */
+	public List<String> getTransactionIds() {
+		return transactionIds;
+	}
+
+	/**
+	 * @return the transactions
+	 */
+	public List<Transaction> getTransactions() {
+		return transactions;
+	}
+
+}
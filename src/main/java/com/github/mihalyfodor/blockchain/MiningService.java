@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mines blocks in the background, so callers don't have to wait for the proof of work.
+ * 
+ * Transactions are always collected into a candidate block. When the candidate is handed over
+ * for mining a fresh candidate takes its place, so new transactions can be added while the
+ * previous block is still being mined. Blocks are mined one after the other on a single thread,
+ * each on top of whatever is the tip of the chain at that time. If a new tip arrives from
+ * somewhere else the block being mined is moved on top of it and mining starts over.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class MiningService implements AutoCloseable {
+
+	/**
+	 * The chain we are mining blocks for.
+	 */
+	private final Blockchain blockchain;
+
+	/**
+	 * Single thread doing the actual hashing, blocks are mined in the order they were handed over.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Does the proof of work for each block.
+	 */
+	private final BlockMiner miner;
+
+	/**
+	 * Raised when the tip of the chain changed under the block being mined.
+	 */
+	private final AtomicBoolean tipChanged = new AtomicBoolean();
+
+	/**
+	 * Raised once the service is closed, pending and running jobs are cancelled.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * The block collecting transactions until it is handed over for mining.
+	 */
+	private Block candidate;
+
+	/**
+	 * Create a mining service for a chain. The chain must already have its genesis block.
+	 * 
+	 * @param blockchain the chain to mine blocks for
+	 */
+	public MiningService(Blockchain blockchain) {
+		this(blockchain, BlockMiner.SCALAR);
+	}
+
+	/**
+	 * Create a mining service for a chain that does the proof of work with the given miner.
+	 * 
+	 * @param blockchain the chain to mine blocks for
+	 * @param miner the miner searching for the delta of each block
+	 */
+	public MiningService(Blockchain blockchain, BlockMiner miner) {
+		this.blockchain = blockchain;
+		this.miner = miner;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "miner");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.candidate = new Block(blockchain.getLatestBlock().getHash());
+	}
+
+	/**
+	 * Add a transaction to the candidate block. This never waits for the block being mined.
+	 * 
+	 * @param transaction the transaction we are adding
+	 * @return transaction processing and adding successful or not
+	 */
+	public synchronized boolean addTransaction(Transaction transaction) {
+		return candidate.addTransaction(transaction);
+	}
+
+	/**
+	 * Hand the candidate block over for mining and start collecting transactions into a new one.
+	 * 
+	 * @return future completed with the block once it was mined and added to the chain
+	 */
+	public synchronized CompletableFuture<Block> mineCandidate() {
+		MiningJob job = new MiningJob(candidate);
+		// the parent is only a placeholder, the block is moved on top of the tip when mined
+		candidate = new Block(candidate.getPreviousHash());
+		executor.execute(job);
+		return job.result;
+	}
+
+	/**
+	 * Accept a block mined somewhere else as the new tip of the chain. The block being mined is
+	 * moved on top of it, and so is the candidate block.
+	 * 
+	 * @param block the new tip
+	 * @return false if the block does not continue our chain or was not mined correctly
+	 */
+	public synchronized boolean acceptBlock(Block block) {
+
+		boolean continuesChain = blockchain.getLatestBlock().getHash().equals(block.getPreviousHash());
+		boolean hashCorrect = block.getHash().equals(block.calculateHash());
+		boolean hashMinedCorrectly = block.getHash().startsWith(Blockchain.LEADING_ZEROES);
+
+		if (!continuesChain || !hashCorrect || !hashMinedCorrectly) {
+			return false;
+		}
+
+		blockchain.appendBlock(block);
+		candidate.setPreviousHash(block.getHash());
+		tipChanged.set(true);
+		return true;
+	}
+
+	/**
+	 * Stop mining. Blocks that were not mined yet have their futures cancelled.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Runnable pending : executor.shutdownNow()) {
+			((MiningJob) pending).result.cancel(false);
+		}
+	}
+
+	/**
+	 * Move the block on top of the current tip, so mining starts from a fresh hash.
+	 * 
+	 * @param block the block we are about to mine
+	 */
+	private synchronized void rebase(Block block) {
+		block.setPreviousHash(blockchain.getLatestBlock().getHash());
+		block.setHash(block.calculateHash());
+	}
+
+	/**
+	 * Add a freshly mined block to the chain, unless the tip changed while we were mining.
+	 * 
+	 * @param block the mined block
+	 * @return block added or not
+	 */
+	private synchronized boolean appendIfTip(Block block) {
+		if (!blockchain.getLatestBlock().getHash().equals(block.getPreviousHash())) {
+			return false;
+		}
+		blockchain.appendBlock(block);
+		candidate.setPreviousHash(block.getHash());
+		return true;
+	}
+
+	/**
+	 * A block waiting to be mined, along with the future of its result.
+	 */
+	private class MiningJob implements Runnable {
+
+		private final Block block;
+
+		private final CompletableFuture<Block> result = new CompletableFuture<>();
+
+		MiningJob(Block block) {
+			this.block = block;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!result.isDone()) {
+					if (closed) {
+						result.cancel(false);
+						return;
+					}
+
+					tipChanged.set(false);
+					rebase(block);
+
+					boolean mined = miner.mine(block, () -> closed || tipChanged.get() || result.isDone());
+					if (mined && appendIfTip(block)) {
+						result.complete(block);
+					}
+				}
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs several nodes in the same process, so we can see how transactions and blocks spread
+ * between them and measure it as nodes are added.
+ * 
+ * Every node starts from the same genesis block. How the nodes reach each other is up to the
+ * {@link Transport}: queues for a quick run, or loopback sockets to pay for encoding and copying
+ * the messages like separate processes would.
+ * 
+ * The wallets of the process follow the chain of the first node added.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class Network implements AutoCloseable {
+
+	private final Transport transport;
+
+	private final Block genesisBlock;
+
+	/**
+	 * Relay blocks with only the ids of their transactions.
+	 */
+	private final boolean compactBlocks;
+
+	private final NetworkStats stats = new NetworkStats();
+
+	private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+	/**
+	 * @param transport carries the messages between nodes
+	 * @param genesisBlock first block of the chain of every node
+	 * @param compactBlocks relay blocks with only the ids of their transactions
+	 */
+	public Network(Transport transport, Block genesisBlock, boolean compactBlocks) {
+		this.transport = transport;
+		this.genesisBlock = genesisBlock;
+		this.compactBlocks = compactBlocks;
+	}
+
+	/**
+	 * Add a node, not connected to anyone yet.
+	 * 
+	 * @param id id of the node, unique in the network
+	 * @return the node
+	 */
+	public synchronized Node addNode(String id) {
+		if (nodes.containsKey(id)) {
+			throw new IllegalArgumentException("Node already in the network: " + id);
+		}
+		// the first node keeps the outputs the wallets listen to in step with its chain
+		UtxoSet walletOutputs = nodes.isEmpty() ? Blockchain.unspentTransactionOutputs : null;
+		Node node = new Node(id, genesisBlock, transport, stats, compactBlocks, walletOutputs);
+		nodes.put(id, node);
+		stats.addNode();
+		return node;
+	}
+
+	/**
+	 * Make two nodes peers of each other.
+	 * 
+	 * @param first id of one node
+	 * @param second id of the other node
+	 */
+	public synchronized void connect(String first, String second) {
+		getNode(first).addPeer(second);
+		getNode(second).addPeer(first);
+	}
+
+	/**
+	 * Make every node a peer of every other node.
+	 */
+	public synchronized void connectAll() {
+		for (String first : nodes.keySet()) {
+			for (String second : nodes.keySet()) {
+				getNode(first).addPeer(second);
+			}
+		}
+	}
+
+	/**
+	 * @param id id of the node
+	 * @return the node
+	 */
+	public synchronized Node getNode(String id) {
+		Node node = nodes.get(id);
+		if (node == null) {
+			throw new IllegalArgumentException("No such node: " + id);
+		}
+		return node;
+	}
+
+	/**
+	 * @return the nodes, in the order they were added
+	 */
+	public synchronized List<Node> getNodes() {
+		return Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+	}
+
+	/**
+	 * @return the measurements of the network
+	 */
+	public NetworkStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Stop the transport, nodes won't receive anything anymore.
+	 */
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measurements of a {@link Network}: how long transactions take to be confirmed, how many bytes it
+ * takes to get a block to every node and how many blocks ended up orphaned.
+ * 
+ * A transaction counts as confirmed once the block holding it was added by every node, and a block
+ * counts as propagated at the same time. Bytes are counted with {@link Message#getSize()}.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class NetworkStats {
+
+	/**
+	 * Number of nodes a block must reach.
+	 */
+	private int nodeCount;
+
+	/**
+	 * When each unconfirmed transaction was submitted, in nanoseconds.
+	 */
+	private final Map<String, Long> submitted = new HashMap<>();
+
+	/**
+	 * Number of nodes that added each block not yet propagated.
+	 */
+	private final Map<String, Integer> reached = new HashMap<>();
+
+	/**
+	 * When each block not yet propagated was mined, in nanoseconds.
+	 */
+	private final Map<String, Long> mined = new HashMap<>();
+
+	/**
+	 * Bytes sent for each block not yet propagated.
+	 */
+	private final Map<String, Long> pendingBytes = new HashMap<>();
+
+	private final LongSummaryStatistics confirmationNanos = new LongSummaryStatistics();
+
+	private final LongSummaryStatistics propagationNanos = new LongSummaryStatistics();
+
+	private final LongSummaryStatistics bytesPerBlock = new LongSummaryStatistics();
+
+	private int orphans;
+
+	synchronized void addNode() {
+		nodeCount++;
+	}
+
+	synchronized void transactionSubmitted(String transactionId) {
+		submitted.putIfAbsent(transactionId, System.nanoTime());
+	}
+
+	synchronized void blockMined(String blockHash) {
+		mined.put(blockHash, System.nanoTime());
+	}
+
+	synchronized void bytesSent(String blockHash, int bytes) {
+		// late requests for the transactions of a block already everywhere are not counted
+		if (reached.containsKey(blockHash) || mined.containsKey(blockHash)) {
+			pendingBytes.merge(blockHash, (long) bytes, Long::sum);
+		}
+	}
+
+	/**
+	 * A node added a block to its chain.
+	 * 
+	 * @param blockHash hash of the block
+	 * @param transactionIds ids of the transactions in the block
+	 */
+	synchronized void blockAdded(String blockHash, List<String> transactionIds) {
+		int nodes = reached.merge(blockHash, 1, Integer::sum);
+		if (nodes < nodeCount) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		reached.remove(blockHash);
+		Long minedAt = mined.remove(blockHash);
+		if (minedAt != null) {
+			propagationNanos.accept(now - minedAt);
+		}
+		bytesPerBlock.accept(pendingBytes.getOrDefault(blockHash, 0L));
+		pendingBytes.remove(blockHash);
+
+		for (String transactionId : transactionIds) {
+			Long submittedAt = submitted.remove(transactionId);
+			if (submittedAt != null) {
+				confirmationNanos.accept(now - submittedAt);
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * A block did not make it onto a chain: its parent was missing, its branch was not the longest,
+	 * or the node switched to another branch and left it behind.
+	 */
+	synchronized void blockOrphaned() {
+		orphans++;
+	}
+
+	/**
+	 * Wait until the given number of blocks have reached every node.
+	 * 
+	 * @param blocks number of blocks
+	 * @param timeout how long to wait at most
+	 * @param unit unit of the timeout
+	 * @return true if the blocks got everywhere in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized boolean awaitPropagated(long blocks, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (bytesPerBlock.getCount() < blocks) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of blocks that reached every node
+	 */
+	public synchronized long getBlocksPropagated() {
+		return bytesPerBlock.getCount();
+	}
+
+	/**
+	 * @return the number of transactions confirmed
+	 */
+	public synchronized long getTransactionsConfirmed() {
+		return confirmationNanos.getCount();
+	}
+
+	/**
+	 * @return average time from submitting a transaction to its block reaching every node, in milliseconds
+	 */
+	public synchronized double getAverageConfirmationMillis() {
+		return confirmationNanos.getAverage() / 1_000_000;
+	}
+
+	/**
+	 * @return longest time from submitting a transaction to its block reaching every node, in milliseconds
+	 */
+	public synchronized double getMaxConfirmationMillis() {
+		return confirmationNanos.getCount() == 0 ? 0 : confirmationNanos.getMax() / 1_000_000.0;
+	}
+
+	/**
+	 * @return average time from mining a block to it reaching every node, in milliseconds
+	 */
+	public synchronized double getAveragePropagationMillis() {
+		return propagationNanos.getAverage() / 1_000_000;
+	}
+
+	/**
+	 * @return average bytes sent to get a block to every node
+	 */
+	public synchronized double getAverageBytesPerBlock() {
+		return bytesPerBlock.getAverage();
+	}
+
+	/**
+	 * @return the number of blocks that could not be added on arrival
+	 */
+	public synchronized int getOrphans() {
+		return orphans;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d blocks, %.1f bytes per block, propagation %.2f ms, %d transactions, "
+				+ "confirmation %.2f ms average %.2f ms max, %d orphans", getBlocksPropagated(),
+				getAverageBytesPerBlock(), getAveragePropagationMillis(), getTransactionsConfirmed(),
+				getAverageConfirmationMillis(), getMaxConfirmationMillis(), orphans);
+	}
+
+}
@@ -0,0 +1,581 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A node of a {@link Network}, with a chain and a pool of transactions of its own.
+ * 
+ * Nodes gossip: a transaction or block seen for the first time is passed on to every peer but the
+ * one it came from. Blocks can be relayed compactly, with only the ids of their transactions. The
+ * receiver rebuilds the block from its pool and asks the sender for the transactions it is missing.
+ * 
+ * Every node keeps its own view of the unspent outputs after each block it knows, so blocks are
+ * built and checked without touching anyone else's. A block we put together changes nothing until
+ * it is added, and a block from a peer is only added and passed on if its hash, its proof of work,
+ * its limits and every one of its transactions check out against the outputs after its parent.
+ * 
+ * Valid blocks that don't continue our chain are kept. Once their branch gets longer than our
+ * chain we switch to it: the chain is rebuilt from the fork point on, the transactions of the
+ * blocks left behind go back to the pool, and those blocks are counted as orphans. The views are
+ * persistent, so keeping one per block only costs the outputs each block changed.
+ * 
+ * The wallets of the process listen to a single unspent output set. One node, the first one of
+ * the {@link Network}, keeps it in step with its chain, applying the blocks it adds and reverting
+ * the ones it leaves behind.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class Node {
+
+	/**
+	 * Serialized size of the blocks, and separately of the transactions, we keep decoded in the cache.
+	 */
+	private static final long CACHE_BYTES = 16L * BlockLimits.DEFAULT.getMaxBytes();
+
+	private final String id;
+
+	private final Transport transport;
+
+	private final NetworkStats stats;
+
+	/**
+	 * Our chain, replaced by a rebuilt one when we switch to another branch.
+	 */
+	private volatile Blockchain blockchain = new Blockchain();
+
+	/**
+	 * Blocks and transactions of our chain, in front of the chain we have at the time.
+	 */
+	private final BlockCache cache = new BlockCache(new BlockStore() {
+
+		@Override
+		public Block loadBlock(String hash) {
+			return blockchain.loadBlock(hash);
+		}
+
+		@Override
+		public Transaction loadTransaction(String transactionId) {
+			return blockchain.loadTransaction(transactionId);
+		}
+	}, CACHE_BYTES, CACHE_BYTES);
+
+	/**
+	 * The unspent outputs the wallets listen to, kept in step with our chain, null if another node
+	 * takes care of them.
+	 */
+	private final UtxoSet walletOutputs;
+
+	/**
+	 * Relay blocks with only the ids of their transactions.
+	 */
+	private final boolean compactBlocks;
+
+	/**
+	 * Limits of the blocks we build and of the ones we accept from peers.
+	 */
+	private final BlockLimits limits = BlockLimits.DEFAULT;
+
+	private final BlockAssembler assembler = new BlockAssembler(limits);
+
+	private final BlockMiner miner = BlockMiner.SCALAR;
+
+	private final List<String> peers = new ArrayList<>();
+
+	/**
+	 * Transactions waiting to get into a block, keyed by id, oldest first.
+	 */
+	private final Map<String, Transaction> pool = new LinkedHashMap<>();
+
+	/**
+	 * Every transaction seen, confirmed or not, so peers can get the ones they miss from us.
+	 */
+	private final Map<String, Transaction> transactions = new HashMap<>();
+
+	/**
+	 * Hashes of the blocks seen, added or not, so we don't handle the same block twice.
+	 */
+	private final Set<String> seenBlocks = new HashSet<>();
+
+	/**
+	 * Every valid block we know, on our chain or not, keyed by hash.
+	 */
+	private final Map<String, Block> blocks = new HashMap<>();
+
+	/**
+	 * Height of every block we know, keyed by hash.
+	 */
+	private final Map<String, Integer> heights = new HashMap<>();
+
+	/**
+	 * The unspent outputs after every block we know, keyed by the hash of the block.
+	 */
+	private final Map<String, UtxoSnapshot> unspentOutputs = new HashMap<>();
+
+	/**
+	 * Blocks whose parent has not arrived yet, keyed by the hash of the parent.
+	 */
+	private final Map<String, Block> orphans = new HashMap<>();
+
+	/**
+	 * Compact blocks waiting for the transactions we asked for, keyed by block hash.
+	 */
+	private final Map<String, Message> incomplete = new HashMap<>();
+
+	/**
+	 * Create a node and start receiving messages.
+	 * 
+	 * @param id id of the node in the network
+	 * @param genesisBlock first block of the chain, the same for every node
+	 * @param transport carries the messages between nodes
+	 * @param stats measurements of the network
+	 * @param compactBlocks relay blocks with only the ids of their transactions
+	 * @param walletOutputs the unspent outputs the wallets listen to, if this node keeps them in step
+	 *            with its chain, null otherwise
+	 */
+	Node(String id, Block genesisBlock, Transport transport, NetworkStats stats, boolean compactBlocks,
+			UtxoSet walletOutputs) {
+		this.id = id;
+		this.transport = transport;
+		this.stats = stats;
+		this.compactBlocks = compactBlocks;
+		this.walletOutputs = walletOutputs;
+		this.blockchain.appendBlock(genesisBlock);
+		this.seenBlocks.add(genesisBlock.getHash());
+		this.blocks.put(genesisBlock.getHash(), genesisBlock);
+		this.heights.put(genesisBlock.getHash(), 0);
+		this.unspentOutputs.put(genesisBlock.getHash(), blockchain.snapshot().getUnspentOutputs());
+		transport.bind(id, this::receive);
+	}
+
+	/**
+	 * Add a peer to pass transactions and blocks on to.
+	 * 
+	 * @param peer id of the peer
+	 */
+	synchronized void addPeer(String peer) {
+		if (!peer.equals(id) && !peers.contains(peer)) {
+			peers.add(peer);
+		}
+	}
+
+	/**
+	 * Add a new transaction to the pool and pass it on to the peers.
+	 * 
+	 * @param transaction the transaction
+	 * @return false if the signature does not match or we already had the transaction
+	 */
+	public synchronized boolean submitTransaction(Transaction transaction) {
+		if (!addToPool(transaction)) {
+			return false;
+		}
+		stats.transactionSubmitted(transaction.getTransactionId());
+		relay(Message.transaction(id, transaction), null);
+		return true;
+	}
+
+	/**
+	 * Mine a block with the transactions of the pool on top of our chain, add it and pass it on to
+	 * the peers. Mining stops as soon as another block becomes the tip. The transactions stay in
+	 * the pool until the block is added, so if another block wins the race they are still there
+	 * for the next one.
+	 * 
+	 * @return the block, or null if another block became the tip while mining
+	 */
+	public Block mineBlock() {
+		Block block;
+		synchronized (this) {
+			Block tip = blockchain.getLatestBlock();
+			List<Transaction> candidates = new ArrayList<>(pool.values());
+			block = assembler.assemble(tip.getHash(), candidates, unspentOutputs.get(tip.getHash()));
+			// what the assembler dropped without taking it into the block is invalid
+			Set<String> kept = new HashSet<>(transactionIds(candidates));
+			kept.addAll(transactionIds(block.getTransactions()));
+			pool.keySet().retainAll(kept);
+		}
+
+		// mine without holding the node, so it keeps receiving blocks and transactions
+		String previousHash = block.getPreviousHash();
+		if (!miner.mine(block, () -> !previousHash.equals(blockchain.getLatestBlock().getHash()))) {
+			return null;
+		}
+
+		synchronized (this) {
+			stats.blockMined(block.getHash());
+			seenBlocks.add(block.getHash());
+			if (!addBlock(block)) {
+				return null;
+			}
+			relay(blockMessage(block), null);
+			return blockchain.getLatestBlock() == block ? block : null;
+		}
+	}
+
+	/**
+	 * Handle a message from a peer. Messages are handed over by the transport one at a time.
+	 * 
+	 * @param message the message
+	 */
+	synchronized void receive(Message message) {
+		switch (message.getType()) {
+		case TRANSACTION:
+			Transaction transaction = message.getTransactions().get(0);
+			if (addToPool(transaction)) {
+				relay(message, message.getSender());
+			}
+			break;
+		case BLOCK:
+			if (seenBlocks.add(message.getBlockHash())) {
+				receiveBlock(toBlock(message.getHeader(), message.getTransactions()), message.getSender());
+			}
+			break;
+		case COMPACT_BLOCK:
+			if (seenBlocks.add(message.getBlockHash())) {
+				receiveCompactBlock(message, true);
+			}
+			break;
+		case GET_TRANSACTIONS:
+			List<Transaction> found = new ArrayList<>();
+			for (String transactionId : message.getTransactionIds()) {
+				Transaction known = transactions.get(transactionId);
+				if (known != null) {
+					found.add(known);
+				}
+			}
+			send(message.getSender(), Message.transactions(id, message.getBlockHash(), found));
+			break;
+		case TRANSACTIONS:
+			Message compactBlock = incomplete.remove(message.getBlockHash());
+			if (compactBlock != null) {
+				for (Transaction missing : message.getTransactions()) {
+					transactions.putIfAbsent(missing.getTransactionId(), missing);
+				}
+				receiveCompactBlock(compactBlock, false);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown message type: " + message.getType());
+		}
+	}
+
+	/**
+	 * Rebuild a compact block from the transactions we have, or ask its sender for the rest.
+	 * 
+	 * @param askForMissing false once we already asked, if the sender did not have them either the
+	 *            block is dropped
+	 */
+	private void receiveCompactBlock(Message message, boolean askForMissing) {
+		// too many transactions to ever fit, don't bother fetching them
+		if (message.getTransactionIds().size() > limits.getMaxTransactions()) {
+			System.out.println("Node " + id + " rejected block " + message.getBlockHash());
+			return;
+		}
+
+		List<Transaction> blockTransactions = new ArrayList<>();
+		List<String> missing = new ArrayList<>();
+		for (String transactionId : message.getTransactionIds()) {
+			Transaction transaction = transactions.get(transactionId);
+			if (transaction == null) {
+				missing.add(transactionId);
+			} else {
+				blockTransactions.add(transaction);
+			}
+		}
+
+		if (!missing.isEmpty()) {
+			if (askForMissing) {
+				incomplete.put(message.getBlockHash(), message);
+				send(message.getSender(), Message.getTransactions(id, message.getBlockHash(), missing));
+			} else {
+				System.out.println("Node " + id + " dropped block " + message.getBlockHash() + ", missing " + missing);
+			}
+			return;
+		}
+		receiveBlock(toBlock(message.getHeader(), blockTransactions), message.getSender());
+	}
+
+	/**
+	 * Check the hash, the proof of work and the limits of a block from a peer, add it if its
+	 * transactions are valid too and pass it on.
+	 */
+	private void receiveBlock(Block block, String sender) {
+		boolean hashCorrect = block.getHash().equals(block.calculateHash());
+		boolean hashMinedCorrectly = block.getHash().startsWith(Blockchain.LEADING_ZEROES);
+		if (!hashCorrect || !hashMinedCorrectly || !block.isWithinLimits()) {
+			System.out.println("Node " + id + " rejected block " + block.getHash());
+			return;
+		}
+
+		if (!addBlock(block)) {
+			return;
+		}
+		relay(blockMessage(block), sender);
+
+		// blocks that were waiting for this one can follow it now
+		Block child = orphans.remove(block.getHash());
+		while (child != null && addBlock(child)) {
+			relay(blockMessage(child), null);
+			child = orphans.remove(child.getHash());
+		}
+	}
+
+	/**
+	 * Check the transactions of a block against the outputs after its parent and keep it. It is
+	 * added to our chain if it continues it, or if it makes its branch longer than our chain.
+	 * 
+	 * @return false if its parent is missing, in which case it is counted as an orphan, or if one
+	 *         of its transactions is invalid
+	 */
+	private boolean addBlock(Block block) {
+		UtxoSnapshot parentOutputs = unspentOutputs.get(block.getPreviousHash());
+		if (parentOutputs == null) {
+			stats.blockOrphaned();
+			if (!seenBlocks.contains(block.getPreviousHash())) {
+				orphans.put(block.getPreviousHash(), block);
+			}
+			return false;
+		}
+
+		if (!new BlockValidator(parentOutputs).acceptAll(block)) {
+			System.out.println("Node " + id + " rejected block " + block.getHash() + ", invalid transaction");
+			return false;
+		}
+
+		int height = heights.get(block.getPreviousHash()) + 1;
+		blocks.put(block.getHash(), block);
+		heights.put(block.getHash(), height);
+		unspentOutputs.put(block.getHash(), parentOutputs.apply(block));
+		for (Transaction transaction : block.getTransactions()) {
+			transactions.putIfAbsent(transaction.getTransactionId(), transaction);
+		}
+
+		LedgerSnapshot chain = blockchain.snapshot();
+		if (chain.getLatestBlock().getHash().equals(block.getPreviousHash())) {
+			blockchain.appendBlock(block);
+			connected(block);
+		} else if (height >= chain.getHeight()) {
+			switchTo(block, chain);
+		} else {
+			// a valid block, but its branch is not longer than our chain
+			stats.blockOrphaned();
+		}
+		return true;
+	}
+
+	/**
+	 * Rebuild the chain with the branch of the given block, which got longer than our chain.
+	 * 
+	 * @param tip last block of the branch
+	 * @param chain our chain as it is now
+	 */
+	private void switchTo(Block tip, LedgerSnapshot chain) {
+		// walk back to where the branch leaves our chain
+		LinkedList<Block> branch = new LinkedList<>();
+		Block block = tip;
+		while (!isOnChain(block, chain)) {
+			branch.addFirst(block);
+			block = blocks.get(block.getPreviousHash());
+		}
+		int forkHeight = heights.get(block.getHash());
+
+		// the chain has the pruned copies, we rebuild it from the whole blocks
+		Blockchain rebuilt = new Blockchain();
+		rebuilt.setPruneDepth(blockchain.getPruneDepth());
+		for (int height = 0; height <= forkHeight; height++) {
+			rebuilt.appendBlock(blocks.get(chain.getBlock(height).getHash()));
+		}
+
+		List<Block> leftBehind = new ArrayList<>();
+		for (int height = chain.getHeight() - 1; height > forkHeight; height--) {
+			Block left = blocks.get(chain.getBlock(height).getHash());
+			leftBehind.add(left);
+			System.out.println("Node " + id + " left block " + left.getHash() + " behind");
+			stats.blockOrphaned();
+			if (walletOutputs != null) {
+				revertWalletOutputs(left);
+			}
+			for (Transaction transaction : left.getTransactions()) {
+				pool.putIfAbsent(transaction.getTransactionId(), transaction);
+			}
+		}
+
+		for (Block added : branch) {
+			rebuilt.appendBlock(added);
+			connected(added);
+		}
+		blockchain = rebuilt;
+		cache.invalidate(leftBehind);
+	}
+
+	/**
+	 * Take care of everything else once a block is on our chain.
+	 */
+	private void connected(Block block) {
+		List<String> transactionIds = transactionIds(block.getTransactions());
+		pool.keySet().removeAll(transactionIds);
+		stats.blockAdded(block.getHash(), transactionIds);
+		if (walletOutputs != null) {
+			applyWalletOutputs(block);
+		}
+	}
+
+	private boolean isOnChain(Block block, LedgerSnapshot chain) {
+		int height = heights.get(block.getHash());
+		return height < chain.getHeight() && chain.getBlock(height).getHash().equals(block.getHash());
+	}
+
+	/**
+	 * Spend the inputs and add the outputs of the transactions of a block we added.
+	 */
+	private void applyWalletOutputs(Block block) {
+		for (Transaction transaction : block.getTransactions()) {
+			List<String> spentIds = new ArrayList<>();
+			for (TransactionInput input : transaction.getInputs()) {
+				spentIds.add(input.getTransactionOutputId());
+			}
+			if (!walletOutputs.apply(transaction.getOutputs(), spentIds)) {
+				System.out.println("Node " + id + " could not apply " + transaction.getTransactionId() + " for the wallets");
+			}
+		}
+		walletOutputs.commit();
+	}
+
+	/**
+	 * Undo the changes of a block we left behind, last transaction first.
+	 */
+	private void revertWalletOutputs(Block block) {
+		List<Transaction> blockTransactions = block.getTransactions();
+		for (int i = blockTransactions.size() - 1; i >= 0; i--) {
+			Transaction transaction = blockTransactions.get(i);
+			List<TransactionOutput> restored = new ArrayList<>();
+			for (TransactionInput input : transaction.getInputs()) {
+				restored.add(input.getUnspentTransactionOutput());
+			}
+			List<String> createdIds = new ArrayList<>();
+			for (TransactionOutput output : transaction.getOutputs()) {
+				createdIds.add(output.getId());
+			}
+			if (!walletOutputs.apply(restored, createdIds)) {
+				System.out.println("Node " + id + " could not revert " + transaction.getTransactionId() + " for the wallets");
+			}
+		}
+		walletOutputs.commit();
+	}
+
+	private boolean addToPool(Transaction transaction) {
+		String transactionId = transaction.getTransactionId();
+		if (transactions.containsKey(transactionId) || !transaction.veifySignature()) {
+			return false;
+		}
+		transactions.put(transactionId, transaction);
+		pool.put(transactionId, transaction);
+		return true;
+	}
+
+	private Message blockMessage(Block block) {
+		return compactBlocks ? Message.compactBlock(id, block) : Message.block(id, block);
+	}
+
+	/**
+	 * Send a message to every peer but the one it came from.
+	 */
+	private void relay(Message message, String sender) {
+		for (String peer : peers) {
+			if (!peer.equals(sender)) {
+				send(peer, message);
+			}
+		}
+	}
+
+	private void send(String peer, Message message) {
+		if (message.getBlockHash() != null) {
+			stats.bytesSent(message.getBlockHash(), message.getSize());
+		}
+		transport.send(peer, message);
+	}
+
+	private Block toBlock(BlockHeader header, List<Transaction> transactions) {
+		Block block = new Block(header.getPreviousHash(), limits);
+		block.setTimestamp(header.getTimestamp());
+		block.setDelta(header.getDelta());
+		block.setTransactions(new ArrayList<>(transactions));
+		block.setHash(header.getHash());
+		return block;
+	}
+
+	private static List<String> transactionIds(List<Transaction> transactions) {
+		List<String> transactionIds = new ArrayList<>();
+		for (Transaction transaction : transactions) {
+			transactionIds.add(transaction.getTransactionId());
+		}
+		return transactionIds;
+	}
+
+	/**
+	 * @return the id
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the chain of the node
+	 */
+	public Blockchain getBlockchain() {
+		return blockchain;
+	}
+
+	/**
+	 * Find a block of our chain. Reads while we switch branches wait, so a block left behind is
+	 * never cached again.
+	 * 
+	 * @param hash hash of the block
+	 * @return the block, or null if it is not on our chain
+	 */
+	public synchronized Block getBlock(String hash) {
+		return cache.getBlock(hash);
+	}
+
+	/**
+	 * Find a transaction confirmed by a block of our chain.
+	 * 
+	 * @param transactionId id of the transaction
+	 * @return the transaction, or null if it is not on our chain or its block was pruned
+	 */
+	public synchronized Transaction getConfirmedTransaction(String transactionId) {
+		return cache.getTransaction(transactionId);
+	}
+
+	/**
+	 * @return the block and transaction cache of our chain
+	 */
+	public BlockCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the ids of the transactions waiting to get into a block
+	 */
+	public synchronized Set<String> getPool() {
+		return Collections.unmodifiableSet(new HashSet<>(pool.keySet()));
+	}
+
+	/**
+	 * @return the ids of the peers
+	 */
+	public synchronized List<String> getPeers() {
+		return Collections.unmodifiableList(new ArrayList<>(peers));
+	}
+
+}
@@ -5,40 +5,62 @@ package com.github.mihalyfodor.blockchain;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 
 /**
+ * A transfer of coins from a sender to a recipient. The fields the hash is made of can't be
+ * changed after creation, so the hash is calculated once, the first time it is needed.
+ * 
  * @author Mihaly Fodor
  *
  */
 public class Transaction {
 	
 	/**
-	 * Number of transactions that were generated.
+	 * Number of transactions that were generated, each one takes the next as its nonce.
+	 */
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+	
+	/**
+	 * Hash of the transaction. Calculated on first use.
 	 */
-	private static int SEQUENCE = 0;
+	private transient HashCode hash;
 	
 	/**
-	 * Hash of the transaction.
+	 * Hex form of the hash, unless set explicitly as for the genesis transaction. Never sent along
+	 * with the transaction, the receiver calculates it again from the fields it got, so a changed
+	 * field can't keep the id of the original.
 	 */
-	private String transactionId;
+	private transient String transactionId;
 	
 	/**
 	 * Sender's address. in a normal implementation this would be the public key.
 	 */
-	private String sender;
+	private final String sender;
 	
 	/**
 	 * Recipient's address. In a normal implementation this would be the public key.
 	 */
-	private String recipient;
+	private final String recipient;
 	
 	/**
 	 * The amount of coins we wish to send.
 	 */
-	private int value;
+	private final int value;
+	
+	/**
+	 * Makes the transaction unique, so two payments of the same value between the same addresses
+	 * don't end up with the same id. Sent along with the transaction, so the receiver calculates
+	 * the same id.
+	 */
+	private final long nonce;
 	
 	/**
 	 * Signature for the transaction. In a normal implementation this would also be more complicated :)
@@ -59,72 +81,126 @@ public class Transaction {
 		this.sender = sender;
 		this.recipient = recipient;
 		this.value = value;
+		this.nonce = SEQUENCE.incrementAndGet();
 		this.inputs = inputs;
 	}
 	
 	/**
-	 * Validate and process the transaction
+	 * Validate and process the transaction against the unspent outputs of the process.
 	 * 
 	 * @return true or false, depending if the transaction was successful or not
 	 */
 	public boolean processTransaction() {
 		
-		System.out.println("Processing transaction " + this.transactionId);
+		System.out.println("Processing transaction " + getTransactionId());
 		
-		if (!this.veifySignature()) {
+		if (!verify(Blockchain.unspentTransactionOutputs::get)) {
 			return false;
 		}
 		
-		// grab all the unspent transaction inputs
+		List<String> usedOutputIds = new ArrayList<>();
 		for (TransactionInput input : inputs) {
-			TransactionOutput unspentTransactionOutput = Blockchain.unspentTransactionOutputs.get(input.getTransactionOutputId());
-			// update the transaction output for an input
-			input.setUnspentTransactionOutput(unspentTransactionOutput);
-			System.out.println("Found money we can send: " + unspentTransactionOutput.getValue() + " tx: " + unspentTransactionOutput.getId());
+			usedOutputIds.add(input.getTransactionOutputId());
 		}
 		
-		// find out how much money we can send
-		int sumOfUnspentInputs = inputs.stream()
-				                .filter(e -> e.getUnspentTransactionOutput() != null)
-				                .mapToInt(e -> e.getUnspentTransactionOutput().getValue())
-				                .sum();
+		// spend the inputs and add the outputs in one go, unless another transaction got to the inputs first
+		if (!Blockchain.unspentTransactionOutputs.apply(outputs, usedOutputIds)) {
+			System.out.println("Inputs were spent by another transaction");
+			return false;
+		}
 		
-		System.out.println("We have " + sumOfUnspentInputs + " that we can send");
-		int leftOverValue = sumOfUnspentInputs - value;
-		System.out.println("That will leave us with " + leftOverValue);
+		for (TransactionInput input : inputs) {
+			System.out.println("Removing " + input.getUnspentTransactionOutput().getValue()
+					+ " from sender's unspent list: " + input.getUnspentTransactionOutput().getId());
+		}
 		
-		transactionId = calculateHash();
-
-		// send the money to the recipient
-		TransactionOutput recipientReceived = new TransactionOutput(this.recipient, value, transactionId);
-		outputs.add(recipientReceived);
-		System.out.println("Sent output " + recipientReceived.getValue() + " to " + this.recipient);
+		// make sure the changes are durable before reporting success
+		Blockchain.unspentTransactionOutputs.commit();
 		
-		TransactionOutput senderReceived = new TransactionOutput(this.sender, leftOverValue, transactionId);
-		outputs.add(senderReceived);
-		System.out.println("Sent output " + senderReceived.getValue() + " to " + this.sender);
+		return true;
+	}
+	
+	/**
+	 * Validate the transaction against a view of the unspent outputs, without changing the view. The
+	 * signature must match, every input must be unspent and used only once, and the inputs must
+	 * cover the value. The inputs are linked to the outputs they spend, and the outputs, the coins
+	 * for the recipient and the change for the sender, are created if the transaction does not have
+	 * them yet. If it does, as when it was received from a peer, they must be exactly those.
+	 * 
+	 * @param unspentOutputs finds an unspent output by id, null if there is no such output
+	 * @return the transaction is valid or not
+	 */
+	public synchronized boolean verify(Function<String, TransactionOutput> unspentOutputs) {
 		
-		// update the transaction outputs
-		for (TransactionOutput output : outputs) {
-			Blockchain.unspentTransactionOutputs.put(output.getId(), output);
+		if (!this.veifySignature() || value < 0) {
+			return false;
 		}
 		
-		// update the transaction inputs
+		// grab all the unspent transaction inputs
+		Set<String> usedOutputIds = new HashSet<>();
+		int sumOfUnspentInputs = 0;
 		for (TransactionInput input : inputs) {
-			if (input.getUnspentTransactionOutput() != null) {
-				Blockchain.unspentTransactionOutputs.remove(input.getUnspentTransactionOutput().getId());
-				System.out.println("Removing " + input.getUnspentTransactionOutput().getValue()
-						+ " from sender's unspent list: " + input.getUnspentTransactionOutput().getId());
+			TransactionOutput unspentTransactionOutput = unspentOutputs.apply(input.getTransactionOutputId());
+			// outputs that don't exist or were already spent can't be sent again, nor can the same one twice
+			if (unspentTransactionOutput == null || !usedOutputIds.add(input.getTransactionOutputId())) {
+				System.out.println("Input is not unspent: " + input.getTransactionOutputId());
+				return false;
 			}
+			// update the transaction output for an input
+			input.setUnspentTransactionOutput(unspentTransactionOutput);
+			sumOfUnspentInputs = sumOfUnspentInputs + unspentTransactionOutput.getValue();
 		}
 		
-		return true;
+		System.out.println("We have " + sumOfUnspentInputs + " that we can send");
+		int leftOverValue = sumOfUnspentInputs - value;
+		if (leftOverValue < 0) {
+			System.out.println("Not enough coins to send " + value);
+			return false;
+		}
+		
+		// send the money to the recipient, and the rest back to the sender
+		List<TransactionOutput> expected = new ArrayList<TransactionOutput>();
+		expected.add(new TransactionOutput(this.recipient, value, getTransactionId()));
+		expected.add(new TransactionOutput(this.sender, leftOverValue, getTransactionId()));
+		
+		if (outputs.isEmpty()) {
+			outputs.addAll(expected);
+			return true;
+		}
+		return outputs.equals(expected);
+	}
+	
+	
+	/**
+	 * @return the 32 byte SHA-256 digest of the transaction, covering the outputs it spends
+	 */
+	public HashCode getHash() {
+		HashCode result = hash;
+		if (result == null) {
+			StringBuilder preimage = new StringBuilder().append(sender).append(recipient).append(value).append(nonce);
+			for (TransactionInput input : inputs) {
+				preimage.append(input.getTransactionOutputId());
+			}
+			result = Hashing.sha256().hashString(preimage, StandardCharsets.UTF_8);
+			hash = result;
+		}
+		return result;
 	}
 	
+	/**
+	 * Size of the transaction when sent over the wire: the addresses, the value, the nonce, the
+	 * signature and a 32 byte hash for every input. The outputs are left out, they are derived from the rest when
+	 * the transaction is processed.
+	 * 
+	 * @return the size in bytes
+	 */
+	public int getSerializedSize() {
+		int size = utf8Length(sender) + utf8Length(recipient) + 4 + 8 + utf8Length(signature);
+		return size + 32 * inputs.size();
+	}
 	
-	private String calculateHash() {
-		return Hashing.sha256().hashString(sender + recipient + value + Transaction.SEQUENCE, StandardCharsets.UTF_8)
-				.toString();
+	private static int utf8Length(String text) {
+		return text == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length;
 	}
 	
 	public void generateSignature() {
@@ -139,13 +215,21 @@ public class Transaction {
 	 * @return the transactionId
 	 */
 	public String getTransactionId() {
-		return transactionId;
+		String result = transactionId;
+		if (result == null) {
+			result = getHash().toString();
+			transactionId = result;
+		}
+		return result;
 	}
 
 	/**
+	 * Override the id calculated from the hash. Only meant for the genesis transaction created by
+	 * {@link Blockchain#addOriginTransaction}, every other id must stay the hash of the transaction.
+	 * 
 	 * @param transactionId the transactionId to set
 	 */
-	public void setTransactionId(String transactionId) {
+	void setTransactionId(String transactionId) {
 		this.transactionId = transactionId;
 	}
 
@@ -156,13 +240,6 @@ public class Transaction {
 		return sender;
 	}
 
-	/**
-	 * @param sender the sender to set
-	 */
-	public void setSender(String sender) {
-		this.sender = sender;
-	}
-
 	/**
 	 * @return the recipient
 	 */
@@ -170,13 +247,6 @@ public class Transaction {
 		return recipient;
 	}
 
-	/**
-	 * @param recipient the recipient to set
-	 */
-	public void setRecipient(String recipient) {
-		this.recipient = recipient;
-	}
-
 	/**
 	 * @return the value
 	 */
@@ -185,10 +255,10 @@ public class Transaction {
 	}
 
 	/**
-	 * @param value the value to set
+	 * @return the nonce
 	 */
-	public void setValue(int value) {
-		this.value = value;
+	public long getNonce() {
+		return nonce;
 	}
 
 	/**
@@ -212,13 +282,6 @@ public class Transaction {
 		return inputs;
 	}
 
-	/**
-	 * @param inputs the inputs to set
-	 */
-	public void setInputs(List<TransactionInput> inputs) {
-		this.inputs = inputs;
-	}
-
 	/**
 	 * @return the outputs
 	 */
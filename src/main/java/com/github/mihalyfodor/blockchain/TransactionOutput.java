@@ -5,76 +5,96 @@ package com.github.mihalyfodor.blockchain;
 
 import java.nio.charset.StandardCharsets;
 
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 
 /**
- * Represents a transaction sent towards a given wallet.
+ * Represents a transaction sent towards a given wallet. Outputs are immutable, so their hash
+ * only needs to be calculated once, the first time it is asked for.
  * 
  * @author Mihaly Fodor
  *
  */
-public class TransactionOutput {
+public final class TransactionOutput {
 
 	/**
-	 * The hash of the transaction output, needed since we are keeping track of them on the
-	 * blockchain.
+	 * Who we are sending coins to, as the id of their address in {@link Blockchain#addresses}. The id
+	 * only means something in this process, so it is never serialized, the address is sent instead.
 	 */
-	private String id;
+	private final transient int ownerId;
 	
 	/**
-	 * Who we are sending coins to.
+	 * Amount of coins sent.
 	 */
-	private String recipient;
+	private final int value;
 	
 	/**
-	 * Amount of coins sent.
+	 * The ID of the owning transaction, for which the output was created.
 	 */
-	private int value;
+	private final String originTransactionId;
 	
 	/**
-	 * The ID of the owning transaction, for which the output was created.
+	 * The hash of the transaction output, needed since we are keeping track of them on the
+	 * blockchain. Calculated on first use.
+	 */
+	private transient HashCode hash;
+	
+	/**
+	 * Hex form of the hash, used as the key of the output. Calculated on first use, never serialized.
 	 */
-	private String originTransactionId;
+	private transient String id;
 	
 	public TransactionOutput(String recipient, int value, String transactionId) {
-		this.recipient = recipient;
+		this.ownerId = Blockchain.addresses.intern(recipient);
 		this.value = value;
 		this.originTransactionId = transactionId;
-		this.id = Hashing.sha256()
-					.hashString(recipient + value + transactionId, StandardCharsets.UTF_8)
-					.toString();
 	}
 	
 	public boolean isOwnedBy(String owner) {
-		return this.recipient == owner;
+		return isOwnedBy(Blockchain.addresses.lookup(owner));
 	}
-
+	
+	public boolean isOwnedBy(int ownerId) {
+		return this.ownerId == ownerId;
+	}
+	
 	/**
-	 * @return the id
+	 * @return the 32 byte SHA-256 digest of the output
 	 */
-	public String getId() {
-		return id;
+	public HashCode getHash() {
+		HashCode result = hash;
+		if (result == null) {
+			result = Hashing.sha256()
+					.hashString(getRecipient() + value + originTransactionId, StandardCharsets.UTF_8);
+			hash = result;
+		}
+		return result;
 	}
 
 	/**
-	 * @param id the id to set
+	 * @return the id
 	 */
-	public void setId(String id) {
-		this.id = id;
+	public String getId() {
+		String result = id;
+		if (result == null) {
+			result = getHash().toString();
+			id = result;
+		}
+		return result;
 	}
 
 	/**
 	 * @return the recipient
 	 */
 	public String getRecipient() {
-		return recipient;
+		return Blockchain.addresses.address(ownerId);
 	}
 
 	/**
-	 * @param recipient the recipient to set
+	 * @return the ownerId
 	 */
-	public void setRecipient(String recipient) {
-		this.recipient = recipient;
+	public int getOwnerId() {
+		return ownerId;
 	}
 
 	/**
@@ -84,13 +104,6 @@ public class TransactionOutput {
 		return value;
 	}
 
-	/**
-	 * @param value the value to set
-	 */
-	public void setValue(int value) {
-		this.value = value;
-	}
-
 	/**
 	 * @return the originTransactionId
 	 */
@@ -98,13 +111,20 @@ public class TransactionOutput {
 		return originTransactionId;
 	}
 
-	/**
-	 * @param originTransactionId the originTransactionId to set
-	 */
-	public void setOriginTransactionId(String originTransactionId) {
-		this.originTransactionId = originTransactionId;
+	@Override
+	public int hashCode() {
+		return getHash().asInt();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TransactionOutput)) {
+			return false;
+		}
+		return getHash().equals(((TransactionOutput) obj).getHash());
 	}
-	
-	
 
 }
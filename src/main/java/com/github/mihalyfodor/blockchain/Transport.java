@@ -0,0 +1,41 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries messages between the nodes of a {@link Network}.
+ * 
+ * Messages from one node to another arrive in the order they were sent, and the messages of a node
+ * are handed to it one at a time.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public interface Transport extends AutoCloseable {
+
+	/**
+	 * Start delivering the messages sent to a node.
+	 * 
+	 * @param nodeId id of the node
+	 * @param receiver called with every message sent to the node
+	 */
+	void bind(String nodeId, Consumer<Message> receiver);
+
+	/**
+	 * Send a message to a node. Does not wait for it to be delivered.
+	 * 
+	 * @param nodeId id of the receiving node
+	 * @param message the message
+	 */
+	void send(String nodeId, Message message);
+
+	/**
+	 * Stop delivering messages. Those still on their way are dropped.
+	 */
+	@Override
+	void close();
+
+}
@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+/**
+ * Gets notified when the unspent outputs of an address change.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public interface UtxoListener {
+	
+	/**
+	 * A new output was created for the address.
+	 * 
+	 * @param output the new output
+	 */
+	void outputCreated(TransactionOutput output);
+	
+	/**
+	 * An output of the address was spent.
+	 * 
+	 * @param output the spent output
+	 */
+	void outputSpent(TransactionOutput output);
+
+}
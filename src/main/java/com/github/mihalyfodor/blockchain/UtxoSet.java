@@ -0,0 +1,251 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of transaction outputs that have not been spent, keyed by output id.
+ * 
+ * Besides keeping the outputs, it tells the listeners of an address about the outputs created for
+ * it and the ones it spent. This way wallets can keep track of their own coins, without scanning
+ * all the unspent outputs every time.
+ * 
+ * Lookups go through a {@link CountingBloomFilter} first, so outputs that never existed or were
+ * already spent are usually turned away without touching the outputs themselves. This matters most
+ * once the outputs live in slower storage.
+ * 
+ * With a {@link WriteAheadLog} attached every change is logged as well, before it is made, and
+ * {@link #commit()} waits until the changes made so far are durable. The changes of a transaction
+ * are applied together with {@link #apply(Collection, Collection)}, so they are logged as a single
+ * record.
+ * 
+ * The set guards itself, changing the outputs and appending to the log happen under the same lock.
+ * Listeners are called while holding it, so they must not wait on other threads using the set.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class UtxoSet {
+	
+	/**
+	 * The unspent outputs, keyed by their id.
+	 */
+	private final Map<String, TransactionOutput> outputs = new HashMap<>();
+	
+	/**
+	 * Listeners of each address, keyed by address id.
+	 */
+	private final transient Map<Integer, List<UtxoListener>> listeners = new HashMap<>();
+	
+	/**
+	 * Expected number of outputs the first filter is sized for.
+	 */
+	private static final int INITIAL_FILTER_CAPACITY = 1024;
+	
+	/**
+	 * False positive rate of the filter while we are within its capacity.
+	 */
+	private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+	
+	/**
+	 * Filter of the output ids, telling us which lookups can be skipped.
+	 */
+	private transient CountingBloomFilter filter = new CountingBloomFilter(INITIAL_FILTER_CAPACITY, FILTER_FALSE_POSITIVE_RATE);
+	
+	/**
+	 * Number of outputs the filter was sized for, it is rebuilt bigger once we get past it.
+	 */
+	private transient int filterCapacity = INITIAL_FILTER_CAPACITY;
+	
+	/**
+	 * Log of the changes, null if they are only kept in memory.
+	 */
+	private transient volatile WriteAheadLog log;
+	
+	/**
+	 * @param id id of the output
+	 * @return the unspent output, or null if it does not exist or was already spent
+	 */
+	public synchronized TransactionOutput get(String id) {
+		if (!filter.mightContain(id)) {
+			return null;
+		}
+		return outputs.get(id);
+	}
+	
+	/**
+	 * Add a newly created output and tell the listeners of its recipient.
+	 * 
+	 * @param output the new output
+	 */
+	public synchronized void add(TransactionOutput output) {
+		apply(Collections.singletonList(output), Collections.emptyList());
+	}
+	
+	/**
+	 * Remove a spent output and tell the listeners of its recipient.
+	 * 
+	 * @param id id of the output
+	 * @return the spent output, or null if it was not unspent
+	 */
+	public synchronized TransactionOutput spend(String id) {
+		TransactionOutput spent = get(id);
+		if (spent != null) {
+			apply(Collections.emptyList(), Collections.singletonList(id));
+		}
+		return spent;
+	}
+	
+	/**
+	 * Apply the changes of a transaction at once: spend its inputs and add the outputs it created.
+	 * Nothing is changed if any of the inputs is not unspent anymore, so two transactions racing
+	 * for the same output can't both have it.
+	 * 
+	 * @param created the outputs created by the transaction
+	 * @param spentIds ids of the outputs the transaction spends
+	 * @return false if an output was not unspent, in which case nothing was changed
+	 */
+	public synchronized boolean apply(Collection<TransactionOutput> created, Collection<String> spentIds) {
+		for (String id : spentIds) {
+			if (get(id) == null) {
+				return false;
+			}
+		}
+		
+		if (log != null) {
+			log.logTransaction(created, spentIds);
+		}
+		
+		for (String id : spentIds) {
+			TransactionOutput spent = outputs.remove(id);
+			filter.remove(id);
+			notifySpent(spent);
+		}
+		for (TransactionOutput output : created) {
+			TransactionOutput replaced = outputs.put(output.getId(), output);
+			if (replaced != null) {
+				notifySpent(replaced);
+			} else {
+				addToFilter(output.getId());
+			}
+			notifyCreated(output);
+		}
+		return true;
+	}
+	
+	/**
+	 * Wait until the changes made so far are durable according to the log's policy. Does nothing
+	 * without a log. Changes of concurrent writers are committed together.
+	 */
+	public void commit() {
+		// waits outside the lock, so other writers can join the same commit
+		WriteAheadLog current = log;
+		if (current != null) {
+			current.commit();
+		}
+	}
+	
+	/**
+	 * Start logging the changes. The log should be replayed into the set before attaching it.
+	 * 
+	 * @param log the log, or null to stop logging
+	 */
+	public synchronized void attachLog(WriteAheadLog log) {
+		this.log = log;
+	}
+	
+	/**
+	 * Start listening to the outputs of an address. The listener is told about the outputs the
+	 * address already has right away, after that only about the changes.
+	 * 
+	 * @param address the address we are interested in
+	 * @param listener the listener
+	 */
+	public synchronized void subscribe(String address, UtxoListener listener) {
+		int ownerId = Blockchain.addresses.intern(address);
+		listeners.computeIfAbsent(ownerId, key -> new ArrayList<>()).add(listener);
+		for (TransactionOutput output : outputs.values()) {
+			if (output.isOwnedBy(ownerId)) {
+				listener.outputCreated(output);
+			}
+		}
+	}
+	
+	/**
+	 * Stop listening to the outputs of an address.
+	 * 
+	 * @param address the address
+	 * @param listener the listener
+	 */
+	public synchronized void unsubscribe(String address, UtxoListener listener) {
+		int ownerId = Blockchain.addresses.lookup(address);
+		List<UtxoListener> addressListeners = listeners.get(ownerId);
+		if (addressListeners != null) {
+			addressListeners.remove(listener);
+			if (addressListeners.isEmpty()) {
+				listeners.remove(ownerId);
+			}
+		}
+	}
+	
+	/**
+	 * @return a copy of the unspent outputs
+	 */
+	public synchronized Collection<TransactionOutput> values() {
+		return Collections.unmodifiableCollection(new ArrayList<>(outputs.values()));
+	}
+	
+	/**
+	 * Calculate the balance of every address in one parallel pass over the outputs. Outputs can't
+	 * be added or spent while it runs.
+	 * 
+	 * @return the balances
+	 */
+	public synchronized BalanceSnapshot balances() {
+		return BalanceSnapshot.of(outputs.values(), Blockchain.addresses);
+	}
+	
+	/**
+	 * @return the number of unspent outputs
+	 */
+	public synchronized int size() {
+		return outputs.size();
+	}
+	
+	private void addToFilter(String id) {
+		if (outputs.size() <= filterCapacity) {
+			filter.add(id);
+			return;
+		}
+		// the filter would get too crowded, rebuild it with twice the room
+		filterCapacity = filterCapacity * 2;
+		filter = new CountingBloomFilter(filterCapacity, FILTER_FALSE_POSITIVE_RATE);
+		for (String outputId : outputs.keySet()) {
+			filter.add(outputId);
+		}
+	}
+	
+	private void notifyCreated(TransactionOutput output) {
+		for (UtxoListener listener : listenersOf(output)) {
+			listener.outputCreated(output);
+		}
+	}
+	
+	private void notifySpent(TransactionOutput output) {
+		for (UtxoListener listener : listenersOf(output)) {
+			listener.outputSpent(output);
+		}
+	}
+	
+	private List<UtxoListener> listenersOf(TransactionOutput output) {
+		return listeners.getOrDefault(output.getOwnerId(), Collections.emptyList());
+	}
+
+}
@@ -0,0 +1,408 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Immutable view of the unspent outputs as they were after a given block.
+ * 
+ * The outputs are kept in a hash array mapped trie: every node branches on the next 5 bits of the
+ * hash of the output id, and only has room for the branches actually in use. Applying a block
+ * copies the nodes on the path to each output its transactions touch, everything else is shared
+ * with the previous version. A change costs a handful of small nodes however big the set grows,
+ * and older views stay intact for whoever is still reading them.
+ * 
+ * Within a single block the nodes copied for it are changed in place, so a block touching many
+ * outputs in the same part of the trie copies each node only once.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public final class UtxoSnapshot {
+
+	/**
+	 * Bits of the hash used on each level of the trie.
+	 */
+	private static final int BITS = 5;
+
+	/**
+	 * The view without any outputs.
+	 */
+	public static final UtxoSnapshot EMPTY = new UtxoSnapshot(BranchNode.EMPTY, 0);
+
+	/**
+	 * Root of the trie, never modified once the view is created.
+	 */
+	private final Node root;
+
+	/**
+	 * Number of outputs in the trie.
+	 */
+	private final int size;
+
+	private UtxoSnapshot(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Create the view after a block: the outputs spent by its transactions are removed and the
+	 * outputs they created are added, in block order.
+	 * 
+	 * @param block the block
+	 * @return the new view, this one stays as it was
+	 */
+	UtxoSnapshot apply(Block block) {
+
+		// nodes created while applying this block carry the token, only those may be changed in place
+		Object edit = new Object();
+		Node next = root;
+		int nextSize = size;
+
+		for (Transaction transaction : block.getTransactions()) {
+			for (TransactionInput input : transaction.getInputs()) {
+				TransactionOutput spent = input.getUnspentTransactionOutput();
+				if (spent != null && get(next, spent.getId()) != null) {
+					next = next.remove(edit, spent.getId(), hash(spent.getId()), 0);
+					nextSize--;
+				}
+			}
+			for (TransactionOutput output : transaction.getOutputs()) {
+				if (get(next, output.getId()) == null) {
+					nextSize++;
+				}
+				next = next.put(edit, output, hash(output.getId()), 0);
+			}
+		}
+
+		return new UtxoSnapshot(next, nextSize);
+	}
+
+	private static TransactionOutput get(Node root, String id) {
+		return root.get(id, hash(id), 0);
+	}
+
+	private static int hash(String id) {
+		int hash = id.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @param id id of the output
+	 * @return the unspent output, or null if it did not exist or was already spent
+	 */
+	public TransactionOutput get(String id) {
+		return get(root, id);
+	}
+
+	/**
+	 * @return all the unspent outputs of the view
+	 */
+	public Collection<TransactionOutput> values() {
+		return new AbstractCollection<TransactionOutput>() {
+
+			@Override
+			public Iterator<TransactionOutput> iterator() {
+				return root.stream().iterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Calculate the balance of every address, in one parallel pass over the trie.
+	 * 
+	 * @return the balances
+	 */
+	public BalanceSnapshot balances() {
+		return BalanceSnapshot.of(root.stream().parallel(), Blockchain.addresses);
+	}
+
+	/**
+	 * @return the number of unspent outputs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * A node of the trie.
+	 */
+	private abstract static class Node {
+
+		/**
+		 * Token of the block being applied when the node was created.
+		 */
+		final Object edit;
+
+		Node(Object edit) {
+			this.edit = edit;
+		}
+
+		abstract TransactionOutput get(String id, int hash, int shift);
+
+		/**
+		 * @return the node with the output added or replaced, this one if it was changed in place
+		 */
+		abstract Node put(Object edit, TransactionOutput output, int hash, int shift);
+
+		/**
+		 * @return the node without the output, this one if it was changed in place or did not have it
+		 */
+		abstract Node remove(Object edit, String id, int hash, int shift);
+
+		/**
+		 * @return the single output of the node if that is all it holds, so it can take the node's place
+		 */
+		abstract TransactionOutput single();
+
+		abstract boolean isEmpty();
+
+		abstract Stream<TransactionOutput> stream();
+	}
+
+	/**
+	 * A node branching on the next bits of the hash. Each entry is either an output or a node.
+	 */
+	private static final class BranchNode extends Node {
+
+		static final BranchNode EMPTY = new BranchNode(null, 0, new Object[0]);
+
+		/**
+		 * Which of the 32 branches are in use.
+		 */
+		int bitmap;
+
+		/**
+		 * The branches in use, in order.
+		 */
+		Object[] entries;
+
+		BranchNode(Object edit, int bitmap, Object[] entries) {
+			super(edit);
+			this.bitmap = bitmap;
+			this.entries = entries;
+		}
+
+		@Override
+		TransactionOutput get(String id, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			Object entry = entries[index(bit)];
+			if (entry instanceof Node) {
+				return ((Node) entry).get(id, hash, shift + BITS);
+			}
+			TransactionOutput output = (TransactionOutput) entry;
+			return output.getId().equals(id) ? output : null;
+		}
+
+		@Override
+		Node put(Object edit, TransactionOutput output, int hash, int shift) {
+			int bit = bit(hash, shift);
+			int index = index(bit);
+
+			if ((bitmap & bit) == 0) {
+				Object[] grown = new Object[entries.length + 1];
+				System.arraycopy(entries, 0, grown, 0, index);
+				grown[index] = output;
+				System.arraycopy(entries, index, grown, index + 1, entries.length - index);
+				BranchNode node = editable(edit);
+				node.bitmap = bitmap | bit;
+				node.entries = grown;
+				return node;
+			}
+
+			Object entry = entries[index];
+			Object replacement;
+			if (entry instanceof Node) {
+				replacement = ((Node) entry).put(edit, output, hash, shift + BITS);
+			} else {
+				TransactionOutput existing = (TransactionOutput) entry;
+				replacement = existing.getId().equals(output.getId()) ? output
+						: split(edit, existing, output, hash, shift + BITS);
+			}
+			if (replacement == entry) {
+				return this;
+			}
+			BranchNode node = editable(edit);
+			node.entries[index] = replacement;
+			return node;
+		}
+
+		@Override
+		Node remove(Object edit, String id, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int index = index(bit);
+			Object entry = entries[index];
+
+			Object replacement;
+			if (entry instanceof Node) {
+				Node child = (Node) entry;
+				Node removed = child.remove(edit, id, hash, shift + BITS);
+				if (removed == child && removed.edit != edit) {
+					return this;
+				}
+				// a node left with a single output is replaced by the output itself
+				TransactionOutput single = removed.single();
+				replacement = removed.isEmpty() ? null : single != null ? single : removed;
+			} else if (((TransactionOutput) entry).getId().equals(id)) {
+				replacement = null;
+			} else {
+				return this;
+			}
+
+			if (replacement != null) {
+				if (replacement == entry) {
+					return this;
+				}
+				BranchNode node = editable(edit);
+				node.entries[index] = replacement;
+				return node;
+			}
+
+			Object[] shrunk = new Object[entries.length - 1];
+			System.arraycopy(entries, 0, shrunk, 0, index);
+			System.arraycopy(entries, index + 1, shrunk, index, entries.length - index - 1);
+			BranchNode node = editable(edit);
+			node.bitmap = bitmap & ~bit;
+			node.entries = shrunk;
+			return node;
+		}
+
+		@Override
+		TransactionOutput single() {
+			return entries.length == 1 && entries[0] instanceof TransactionOutput ? (TransactionOutput) entries[0] : null;
+		}
+
+		@Override
+		boolean isEmpty() {
+			return entries.length == 0;
+		}
+
+		@Override
+		Stream<TransactionOutput> stream() {
+			return Arrays.stream(entries).flatMap(
+					entry -> entry instanceof Node ? ((Node) entry).stream() : Stream.of((TransactionOutput) entry));
+		}
+
+		/**
+		 * @return this node if it was created for the same block, a copy of it otherwise
+		 */
+		private BranchNode editable(Object edit) {
+			return this.edit == edit ? this : new BranchNode(edit, bitmap, entries.clone());
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		static int bit(int hash, int shift) {
+			return 1 << ((hash >>> shift) & 31);
+		}
+
+		/**
+		 * Create the node holding two outputs that ended up in the same branch.
+		 */
+		private static Node split(Object edit, TransactionOutput existing, TransactionOutput added, int hash, int shift) {
+			int existingHash = hash(existing.getId());
+			if (existingHash == hash) {
+				return new CollisionNode(edit, hash, new TransactionOutput[] { existing, added });
+			}
+			return new BranchNode(edit, 0, new Object[0])
+					.put(edit, existing, existingHash, shift)
+					.put(edit, added, hash, shift);
+		}
+	}
+
+	/**
+	 * A node holding outputs whose ids have the very same hash.
+	 */
+	private static final class CollisionNode extends Node {
+
+		/**
+		 * The hash shared by the outputs.
+		 */
+		final int hash;
+
+		final TransactionOutput[] outputs;
+
+		CollisionNode(Object edit, int hash, TransactionOutput[] outputs) {
+			super(edit);
+			this.hash = hash;
+			this.outputs = outputs;
+		}
+
+		@Override
+		TransactionOutput get(String id, int hash, int shift) {
+			for (TransactionOutput output : outputs) {
+				if (output.getId().equals(id)) {
+					return output;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		Node put(Object edit, TransactionOutput output, int hash, int shift) {
+			if (hash != this.hash) {
+				// branch out on the bits where the hashes differ
+				return new BranchNode(edit, BranchNode.bit(this.hash, shift), new Object[] { this })
+						.put(edit, output, hash, shift);
+			}
+			for (int i = 0; i < outputs.length; i++) {
+				if (outputs[i].getId().equals(output.getId())) {
+					TransactionOutput[] replaced = outputs.clone();
+					replaced[i] = output;
+					return new CollisionNode(edit, hash, replaced);
+				}
+			}
+			TransactionOutput[] grown = Arrays.copyOf(outputs, outputs.length + 1);
+			grown[outputs.length] = output;
+			return new CollisionNode(edit, hash, grown);
+		}
+
+		@Override
+		Node remove(Object edit, String id, int hash, int shift) {
+			for (int i = 0; i < outputs.length; i++) {
+				if (outputs[i].getId().equals(id)) {
+					TransactionOutput[] shrunk = new TransactionOutput[outputs.length - 1];
+					System.arraycopy(outputs, 0, shrunk, 0, i);
+					System.arraycopy(outputs, i + 1, shrunk, i, outputs.length - i - 1);
+					return new CollisionNode(edit, this.hash, shrunk);
+				}
+			}
+			return this;
+		}
+
+		@Override
+		TransactionOutput single() {
+			return outputs.length == 1 ? outputs[0] : null;
+		}
+
+		@Override
+		boolean isEmpty() {
+			return outputs.length == 0;
+		}
+
+		@Override
+		Stream<TransactionOutput> stream() {
+			return Arrays.stream(outputs);
+		}
+	}
+
+}
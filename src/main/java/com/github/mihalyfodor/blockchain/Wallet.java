@@ -5,28 +5,55 @@ package com.github.mihalyfodor.blockchain;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A representation of the coins we own. The amount is given from the sum of transactions that
  * were addressed to us and we did not spend.
  * 
+ * The wallet listens to the changes of the unspent outputs addressed to it, so it always knows
+ * its own coins without looking through the outputs of everyone else. The changes arrive on
+ * whichever thread processes the transactions, so the wallet state is guarded by the wallet itself.
+ * A wallet no longer in use must be closed, otherwise the unspent outputs keep it around and keep
+ * telling it about its address.
+ * 
+ * The outputs picked for a transaction are reserved until they are spent, so sending again before
+ * the transaction is processed picks other outputs. If the transaction is rejected or dropped, its
+ * outputs must be given back with {@link #release(Transaction)}.
+ * 
  * @author Mihaly Fodor
  *
  */
-public class Wallet {
+public class Wallet implements UtxoListener, AutoCloseable {
 	
 	/**
 	 * The address of the wallet. This should normally be a private and public key pair.
 	 */
-	private String address;
+	private volatile String address;
 	
 	/**
 	 * Map keeping track of the transactions we did not spend.
 	 */
 	private Map<String, TransactionOutput> unspentTransactionOutputs = new HashMap<String, TransactionOutput>();
 	
+	/**
+	 * Sum of the outputs we did not spend, kept up to date as they change.
+	 */
+	private int balance;
+	
+	/**
+	 * Ids of the outputs picked for transactions not processed yet.
+	 */
+	private final Set<String> reserved = new HashSet<String>();
+	
+	/**
+	 * Sum of the reserved outputs.
+	 */
+	private int reservedBalance;
+	
 	/**
 	 * Creating a wallet needs only an owner
 	 * 
@@ -34,40 +61,48 @@ public class Wallet {
 	 */
 	public Wallet(String address) {
 		this.address = address;
+		Blockchain.unspentTransactionOutputs.subscribe(address, this);
 	}
 	
 	/**
-	 * Helper method to find out how much money we have and update our internal map for it.
-	 * We are checking the transaction list of the blockchain and are checking if any of the transactions
-	 * are ours.
+	 * Find out how much money we have. Our unspent outputs are tracked as they are created and spent,
+	 * so this does not need to look at the blockchain.
 	 * 
 	 * @return the amount of coins we have
 	 */
-	public int getBalance() {
-		int balance = 0;
-		
-		for (TransactionOutput output: Blockchain.unspentTransactionOutputs.values()) {
-			if (output.isOwnedBy(this.address)) {
-				this.unspentTransactionOutputs.put(output.getId(), output);
-				balance = balance + output.getValue();
+	public synchronized int getBalance() {
+		return balance;
+	}
+	
+	@Override
+	public synchronized void outputCreated(TransactionOutput output) {
+		if (unspentTransactionOutputs.put(output.getId(), output) == null) {
+			balance = balance + output.getValue();
+		}
+	}
+	
+	@Override
+	public synchronized void outputSpent(TransactionOutput output) {
+		if (unspentTransactionOutputs.remove(output.getId()) != null) {
+			balance = balance - output.getValue();
+			if (reserved.remove(output.getId())) {
+				reservedBalance = reservedBalance - output.getValue();
 			}
 		}
-		
-		return balance;
 	}
 	
 	/**
-	 * Send coins from this wallet to another.
+	 * Send coins from this wallet to another. The outputs picked are reserved until they are spent.
 	 * 
 	 * @param recipient the address of the recipient wallet
 	 * @param value the amount of coins we send
 	 * 
-	 * @return the transaction
+	 * @return the transaction, or null if we don't have enough coins that are not reserved
 	 */
-	public Transaction sendCoins(String recipient, int value) {
+	public synchronized Transaction sendCoins(String recipient, int value) {
 		
-		// we can't send coins we don't have
-		if (getBalance() < value) {
+		// we can't send coins we don't have, or already sent in a transaction waiting to be processed
+		if (balance - reservedBalance < value) {
 			return null;
 		}
 		
@@ -76,11 +111,6 @@ public class Wallet {
 		Transaction transaction = new Transaction(this.address, recipient, value, inputs);
 		transaction.generateSignature();
 		
-		
-		for (TransactionInput input: inputs) {
-			unspentTransactionOutputs.remove(input.getTransactionOutputId());
-		}
-		
 		return transaction;
 	}
 
@@ -95,20 +125,38 @@ public class Wallet {
 		List<TransactionInput> inputs = new ArrayList<TransactionInput>();
 		
 		int total = 0;
-		for (TransactionOutput output: Blockchain.unspentTransactionOutputs.values()) {
+		for (TransactionOutput output: unspentTransactionOutputs.values()) {
+			
+			if (!reserved.add(output.getId())) {
+				continue;
+			}
+			reservedBalance = reservedBalance + output.getValue();
+			
+			total = total + output.getValue();
+			inputs.add(new TransactionInput(output.getId()));
 			
-			if (output.isOwnedBy(this.getAddress())) {
-				total = total + output.getValue();
-				inputs.add(new TransactionInput(output.getId()));
-				
-				if (total > value) {
-					break;
-				}
+			if (total >= value) {
+				break;
 			}
 		}
 		return inputs;
 	}
 	
+	/**
+	 * Give back the outputs reserved for a transaction that was rejected or dropped, so they can be
+	 * sent again. Outputs already spent are not affected.
+	 * 
+	 * @param transaction a transaction created by this wallet
+	 */
+	public synchronized void release(Transaction transaction) {
+		for (TransactionInput input : transaction.getInputs()) {
+			TransactionOutput output = unspentTransactionOutputs.get(input.getTransactionOutputId());
+			if (output != null && reserved.remove(output.getId())) {
+				reservedBalance = reservedBalance - output.getValue();
+			}
+		}
+	}
+	
 	/**
 	 * @return the address
 	 */
@@ -117,10 +165,31 @@ public class Wallet {
 	}
 
 	/**
+	 * Move the wallet to a new address, along with the listening for its outputs.
+	 * 
+	 * The unspent outputs call back into the wallet when subscribing, so they are never called
+	 * while holding the wallet.
+	 * 
 	 * @param address the address to set
 	 */
 	public void setAddress(String address) {
-		this.address = address;
+		Blockchain.unspentTransactionOutputs.unsubscribe(this.address, this);
+		synchronized (this) {
+			this.unspentTransactionOutputs.clear();
+			this.balance = 0;
+			this.reserved.clear();
+			this.reservedBalance = 0;
+			this.address = address;
+		}
+		Blockchain.unspentTransactionOutputs.subscribe(address, this);
+	}
+	
+	/**
+	 * Stop listening to the outputs of our address. The balance is not updated anymore.
+	 */
+	@Override
+	public void close() {
+		Blockchain.unspentTransactionOutputs.unsubscribe(address, this);
 	}
 	
 	
@@ -0,0 +1,424 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the changes to the unspent outputs, so they survive a crash.
+ * 
+ * Every transaction is appended as a single record, holding the outputs it created and the ids of
+ * the outputs it spent, so it is either replayed whole or not at all. Writers don't touch the disk
+ * themselves: a single flusher thread takes everything appended since its last round, writes it
+ * with one call and syncs it according to the {@link FsyncPolicy}. Writers arriving while a round is on disk end
+ * up in the next one, so concurrent transactions share a single fsync instead of paying for their
+ * own. This is usually called group commit.
+ * 
+ * Each record is framed with its length and a CRC32 checksum. On startup the log is read up to
+ * the first incomplete or damaged record, which is where a crash interrupted the last write, and
+ * the rest is cut off. A transaction torn by the crash is dropped along with its record.
+ * 
+ * @author Mihaly Fodor
+ *
+ */
+public class WriteAheadLog implements AutoCloseable {
+	
+	private static final byte TRANSACTION = 1;
+	
+	/**
+	 * Size of the frame around each record: the length and the checksum.
+	 */
+	private static final int FRAME_HEADER_SIZE = 8;
+	
+	/**
+	 * The log file.
+	 */
+	private final Path file;
+	
+	/**
+	 * Channel we are appending to.
+	 */
+	private final FileChannel channel;
+	
+	/**
+	 * When to fsync.
+	 */
+	private final FsyncPolicy policy;
+	
+	/**
+	 * Minimum time between two fsyncs with the periodic policy.
+	 */
+	private final long fsyncIntervalMillis;
+	
+	/**
+	 * Guards everything below, writers and the flusher wait on it.
+	 */
+	private final Object lock = new Object();
+	
+	/**
+	 * Framed records waiting for the next group commit.
+	 */
+	private List<byte[]> pending = new ArrayList<>();
+	
+	/**
+	 * Sequence number of the last record appended.
+	 */
+	private long appendedSequence;
+	
+	/**
+	 * Sequence number of the last record committed according to the policy.
+	 */
+	private long committedSequence;
+	
+	/**
+	 * Set if writing the log failed, every later commit fails with it.
+	 */
+	private IOException failure;
+	
+	/**
+	 * Number of rounds written by the flusher.
+	 */
+	private long flushCount;
+	
+	private boolean closed;
+	
+	/**
+	 * The thread doing the group commits.
+	 */
+	private final Thread flusher;
+	
+	/**
+	 * Open the log, creating the file if needed. A damaged tail left by a crash is cut off.
+	 * 
+	 * @param file the log file
+	 * @param policy when to fsync
+	 * @param fsyncIntervalMillis minimum time between fsyncs, only used by the periodic policy
+	 * @throws IOException if the file can't be opened
+	 */
+	public WriteAheadLog(Path file, FsyncPolicy policy, long fsyncIntervalMillis) throws IOException {
+		this.file = file;
+		this.policy = policy;
+		this.fsyncIntervalMillis = fsyncIntervalMillis;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		long validLength = readRecords(null);
+		channel.truncate(validLength);
+		channel.position(validLength);
+		
+		this.flusher = new Thread(this::flushLoop, "write-ahead-log");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+	
+	/**
+	 * Replay the log into an unspent output set, recreating the outputs in the order they were
+	 * logged. Should be called on startup, before the log is attached to the set.
+	 * 
+	 * @param unspentOutputs the set to restore
+	 * @throws IOException if the file can't be read
+	 */
+	public void replay(UtxoSet unspentOutputs) throws IOException {
+		readRecords(unspentOutputs);
+	}
+	
+	/**
+	 * Log the changes of a transaction as one record.
+	 * 
+	 * @param created the outputs it created
+	 * @param spentIds ids of the outputs it spent
+	 * @return sequence number of the record
+	 */
+	public long logTransaction(Collection<TransactionOutput> created, Collection<String> spentIds) {
+		return append(record(out -> {
+			out.writeByte(TRANSACTION);
+			out.writeInt(created.size());
+			for (TransactionOutput output : created) {
+				out.writeUTF(output.getRecipient());
+				out.writeInt(output.getValue());
+				out.writeUTF(output.getOriginTransactionId());
+			}
+			out.writeInt(spentIds.size());
+			for (String outputId : spentIds) {
+				out.writeUTF(outputId);
+			}
+		}));
+	}
+	
+	/**
+	 * Wait until every record appended so far is committed.
+	 */
+	public void commit() {
+		long sequence;
+		synchronized (lock) {
+			sequence = appendedSequence;
+		}
+		awaitCommitted(sequence);
+	}
+	
+	/**
+	 * Wait until a record is committed, along with everything appended before it.
+	 * 
+	 * @param sequence sequence number of the record
+	 */
+	public void awaitCommitted(long sequence) {
+		synchronized (lock) {
+			while (committedSequence < sequence && failure == null) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for commit"));
+				}
+			}
+			if (committedSequence < sequence) {
+				throw new UncheckedIOException("Write-ahead log failed", failure);
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of rounds written so far, each holding every record appended since the one before
+	 */
+	public long getFlushCount() {
+		synchronized (lock) {
+			return flushCount;
+		}
+	}
+	
+	/**
+	 * Commit what is pending, then stop the flusher and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (policy != FsyncPolicy.NEVER && channel.isOpen()) {
+			channel.force(false);
+		}
+		channel.close();
+	}
+	
+	private long append(byte[] frame) {
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("Write-ahead log is closed");
+			}
+			pending.add(frame);
+			appendedSequence++;
+			lock.notifyAll();
+			return appendedSequence;
+		}
+	}
+	
+	private void flushLoop() {
+		long lastSync = System.currentTimeMillis();
+		boolean unsynced = false;
+		
+		while (true) {
+			List<byte[]> batch;
+			long batchEnd;
+			
+			synchronized (lock) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						if (unsynced) {
+							// make sure the last writes get synced even if nothing else arrives
+							lock.wait(Math.max(1, fsyncIntervalMillis - (System.currentTimeMillis() - lastSync)));
+							break;
+						}
+						lock.wait();
+					} catch (InterruptedException e) {
+						// nobody is left to commit, fail the waiting writers rather than leave them hanging
+						failure = new InterruptedIOException("Write-ahead log flusher interrupted");
+						lock.notifyAll();
+						return;
+					}
+				}
+				if (pending.isEmpty() && closed) {
+					return;
+				}
+				batch = pending;
+				batchEnd = appendedSequence;
+				pending = new ArrayList<>();
+			}
+			
+			try {
+				write(batch);
+				
+				long now = System.currentTimeMillis();
+				boolean sync = policy == FsyncPolicy.ALWAYS
+						|| (policy == FsyncPolicy.PERIODIC && now - lastSync >= fsyncIntervalMillis);
+				if (sync) {
+					channel.force(false);
+					lastSync = now;
+				}
+				unsynced = policy == FsyncPolicy.PERIODIC && !sync;
+			} catch (IOException e) {
+				synchronized (lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+			
+			synchronized (lock) {
+				if (!batch.isEmpty()) {
+					flushCount++;
+				}
+				committedSequence = batchEnd;
+				lock.notifyAll();
+			}
+		}
+	}
+	
+	private void write(List<byte[]> batch) throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		int size = 0;
+		for (byte[] frame : batch) {
+			size += frame.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (byte[] frame : batch) {
+			buffer.put(frame);
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Read the valid records from the start of the file.
+	 * 
+	 * @param unspentOutputs set to apply the records to, or null to only find their end
+	 * @return length of the valid part of the file
+	 */
+	private long readRecords(UtxoSet unspentOutputs) throws IOException {
+		
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		
+		while (true) {
+			header.clear();
+			if (readFully(header, position) < FRAME_HEADER_SIZE) {
+				return position;
+			}
+			header.flip();
+			int length = header.getInt();
+			int checksum = header.getInt();
+			
+			if (length <= 0 || position + FRAME_HEADER_SIZE + length > channel.size()) {
+				return position;
+			}
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, position + FRAME_HEADER_SIZE);
+			if (checksum(payload.array()) != checksum) {
+				return position;
+			}
+			
+			if (unspentOutputs != null) {
+				apply(payload.array(), unspentOutputs);
+			}
+			position += FRAME_HEADER_SIZE + length;
+		}
+	}
+	
+	private int readFully(ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+	
+	private static void apply(byte[] payload, UtxoSet unspentOutputs) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		if (in.readByte() != TRANSACTION) {
+			return;
+		}
+		List<TransactionOutput> created = new ArrayList<>();
+		for (int count = in.readInt(); count > 0; count--) {
+			String recipient = in.readUTF();
+			int value = in.readInt();
+			String originTransactionId = in.readUTF();
+			created.add(new TransactionOutput(recipient, value, originTransactionId));
+		}
+		List<String> spentIds = new ArrayList<>();
+		for (int count = in.readInt(); count > 0; count--) {
+			spentIds.add(in.readUTF());
+		}
+		unspentOutputs.apply(created, spentIds);
+	}
+	
+	private static byte[] record(RecordWriter writer) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeInt(0);
+			writer.write(out);
+			out.flush();
+			
+			ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+			int length = frame.capacity() - FRAME_HEADER_SIZE;
+			frame.putInt(0, length);
+			frame.putInt(4, checksum(frame.array(), FRAME_HEADER_SIZE, length));
+			return frame.array();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static int checksum(byte[] data) {
+		return checksum(data, 0, data.length);
+	}
+	
+	private static int checksum(byte[] data, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+	
+	/**
+	 * Writes the payload of a record.
+	 */
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * @return the file
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ * 
+ */
+public class BlockAssemblerTest {
+
+	@Rule
+	public final Wallets wallets = new Wallets();
+
+	private Wallet bank;
+	private Block genesisBlock;
+
+	@Before
+	public void setUp() {
+		bank = wallets.open("Packing Bank");
+	}
+
+	@Test
+	public void testFullBlockRejectsWithoutProcessing() {
+
+		Wallet walletG = fundedWallet("Wallet G");
+		Wallet walletH = wallets.open("Wallet H");
+		Wallet walletI = fundedWallet("Wallet I");
+		Wallet walletJ = wallets.open("Wallet J");
+
+		Block block = new Block(genesisBlock.getHash(), new BlockLimits(Block.HEADER_SIZE + 1000, 1));
+
+		assertTrue(block.addTransaction(walletG.sendCoins(walletH.getAddress(), 10)));
+		assertFalse(block.addTransaction(walletI.sendCoins(walletJ.getAddress(), 90)));
+
+		assertEquals(1, block.getTransactions().size());
+		assertEquals(100, walletI.getBalance());
+		assertEquals(0, walletJ.getBalance());
+	}
+
+	@Test
+	public void testMostValuePerBytePackedFirst() {
+
+		Wallet walletK = fundedWallet("Wallet K");
+		Wallet walletL = wallets.open("Wallet L");
+		Wallet walletM = fundedWallet("Wallet M");
+		Wallet walletN = wallets.open("Wallet N");
+
+		Transaction small = walletK.sendCoins(walletL.getAddress(), 10);
+		Transaction large = walletM.sendCoins(walletN.getAddress(), 90);
+		List<Transaction> pool = new ArrayList<>(Arrays.asList(small, large));
+
+		BlockAssembler assembler = new BlockAssembler(new BlockLimits(Block.HEADER_SIZE + large.getSerializedSize(), 10));
+		Block block = assembler.assemble(genesisBlock.getHash(), pool);
+
+		assertEquals(Arrays.asList(large), block.getTransactions());
+		assertEquals(Arrays.asList(small), pool);
+		assertEquals(90, walletN.getBalance());
+		assertEquals(0, walletL.getBalance());
+	}
+
+	@Test
+	public void testChildSortedAheadOfItsParent() {
+
+		Wallet walletAU = fundedWallet("Wallet AU");
+		Wallet walletAV = wallets.open("Wallet AV");
+		Wallet walletAW = wallets.open("Wallet AW");
+
+		// the child spends the output the parent creates for Wallet AV, and sorts first on a tie
+		Transaction parent = walletAU.sendCoins(walletAV.getAddress(), 50);
+		String parentOutputId = new TransactionOutput(walletAV.getAddress(), 50, parent.getTransactionId()).getId();
+		Transaction child = new Transaction(walletAV.getAddress(), walletAW.getAddress(), 50,
+				new ArrayList<>(Arrays.asList(new TransactionInput(parentOutputId))));
+		child.generateSignature();
+		Transaction doubleSpend = new Transaction(walletAV.getAddress(), walletAW.getAddress(), 50,
+				new ArrayList<>(Arrays.asList(new TransactionInput(parentOutputId))));
+		doubleSpend.generateSignature();
+		List<Transaction> pool = new ArrayList<>(Arrays.asList(child, parent, doubleSpend));
+
+		Block block = new BlockAssembler(BlockLimits.DEFAULT).assemble(genesisBlock.getHash(), pool);
+
+		assertEquals(Arrays.asList(parent, child), block.getTransactions());
+		assertTrue(pool.isEmpty());
+		assertEquals(50, walletAU.getBalance());
+		assertEquals(50, walletAW.getBalance());
+	}
+
+	@Test
+	public void testChainOverItsLimitsIsInvalid() {
+
+		Blockchain blockChain = new Blockchain();
+		Block genesis = blockChain.initializeChain();
+		Block block = new Block(genesis.getHash(), new BlockLimits(Block.HEADER_SIZE + 1000, 1));
+		List<Transaction> transactions = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Transaction transaction = new Transaction("Limit Sender", "Limit Recipient", i, new ArrayList<>());
+			transaction.generateSignature();
+			transactions.add(transaction);
+		}
+		block.setTransactions(transactions);
+		block.mineBlock();
+
+		assertFalse(block.isWithinLimits());
+		assertFalse(Blockchain.isChainValid(Arrays.asList(genesis, block)));
+		block.setTransactions(transactions.subList(0, 1));
+		block.setHash(block.calculateHash());
+		block.mineBlock();
+		assertTrue(Blockchain.isChainValid(Arrays.asList(genesis, block)));
+	}
+
+	private Wallet fundedWallet(String address) {
+		Wallet wallet = wallets.open(address);
+		genesisBlock = new Blockchain().addOriginTransaction(bank, wallet, 100);
+		return wallet;
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ *
+ */
+public class BlockCacheTest {
+	
+	private Map<String, Block> stored;
+	private int loads;
+	private BlockCache cache;
+	
+	@Before
+	public void setUp() {
+		stored = new HashMap<>();
+		loads = 0;
+		BlockStore store = new BlockStore() {
+			
+			@Override
+			public Block loadBlock(String hash) {
+				loads++;
+				return stored.get(hash);
+			}
+			
+			@Override
+			public Transaction loadTransaction(String transactionId) {
+				return null;
+			}
+		};
+		cache = new BlockCache(store, 3 * Block.HEADER_SIZE, 1000);
+	}
+	
+	@Test
+	public void testHotBlocksAreServedFromMemory() {
+		
+		Block block = storedBlock("first");
+		
+		assertSame(block, cache.getBlock(block.getHash()));
+		assertSame(block, cache.getBlock(block.getHash()));
+		assertEquals(1, loads);
+		assertEquals(1, cache.getBlockStats().hitCount());
+		assertEquals(1, cache.getBlockStats().missCount());
+		assertEquals(1, cache.getBlockStats().loadSuccessCount());
+		
+		// nothing is cached for a block the store does not have
+		assertNull(cache.getBlock("unknown"));
+		assertNull(cache.getBlock("unknown"));
+		assertEquals(3, loads);
+		assertEquals(2, cache.getBlockStats().loadExceptionCount());
+	}
+	
+	@Test
+	public void testConcurrentMissesLoadOnce() throws Exception {
+		
+		Block block = new Block("concurrent");
+		AtomicInteger slowLoads = new AtomicInteger();
+		BlockCache slowCache = new BlockCache(new BlockStore() {
+			
+			@Override
+			public Block loadBlock(String hash) {
+				slowLoads.incrementAndGet();
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return block;
+			}
+			
+			@Override
+			public Transaction loadTransaction(String transactionId) {
+				return null;
+			}
+		}, 3 * Block.HEADER_SIZE, 1000);
+		
+		// the results are checked here, a failed assertion on another thread would go unnoticed
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Block>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(() -> slowCache.getBlock(block.getHash())));
+			}
+			for (Future<Block> result : results) {
+				assertSame(block, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		assertEquals(1, slowLoads.get());
+		assertEquals(1, slowCache.getBlockStats().loadCount());
+	}
+	
+	@Test
+	public void testSizeIsBoundedAndReorgInvalidates() {
+		
+		Block first = storedBlock("first");
+		cache.getBlock(first.getHash());
+		for (int i = 0; i < 10; i++) {
+			cache.getBlock(storedBlock("block " + i).getHash());
+		}
+		// pushed out by the newer blocks
+		cache.getBlock(first.getHash());
+		assertEquals(12, loads);
+		
+		cache.invalidate(Collections.singletonList(first));
+		cache.getBlock(first.getHash());
+		assertEquals(13, loads);
+	}
+	
+	private Block storedBlock(String previousHash) {
+		Block block = new Block(previousHash);
+		stored.put(block.getHash(), block);
+		return block;
+	}
+
+}
@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ *
+ */
+public class BlockchainTest {
+	
+	@Rule
+	public final Wallets wallets = new Wallets();
+	
+	@Test
+	public void testPrunedChainStaysValid() {
+		
+		Wallet bank = wallets.open("Pruning Bank");
+		Wallet walletZ = wallets.open("Wallet Z");
+		Wallet walletAA = wallets.open("Wallet AA");
+		Blockchain blockChain = new Blockchain();
+		blockChain.setPruneDepth(1);
+		
+		Block genesisBlock = blockChain.addOriginTransaction(bank, walletZ, 100);
+		Block block1 = new Block(genesisBlock.getHash());
+		assertTrue(block1.addTransaction(walletZ.sendCoins(walletAA.getAddress(), 10)));
+		blockChain.addBlock(block1);
+		LedgerSnapshot beforePruning = blockChain.snapshot();
+		
+		blockChain.addBlock(new Block(block1.getHash()));
+		
+		assertTrue(blockChain.getBlockchain().get(0).isPruned());
+		assertTrue(blockChain.getBlockchain().get(1).isPruned());
+		assertFalse(blockChain.getBlockchain().get(2).isPruned());
+		assertTrue(blockChain.getBlockchain().get(1).getTransactions().isEmpty());
+		assertEquals(block1.getMerkleRoot(), blockChain.getBlockchain().get(1).getMerkleRoot());
+		
+		assertTrue(blockChain.isChainValid());
+		assertEquals(3, new HeaderChain().sync(blockChain));
+		
+		// earlier snapshots keep the blocks they had
+		assertEquals(1, beforePruning.getBlocks().get(1).getTransactions().size());
+		assertEquals(10, walletAA.getBalance());
+		assertEquals(10, blockChain.snapshot().getBalance(walletAA.getAddress()));
+	}
+
+}
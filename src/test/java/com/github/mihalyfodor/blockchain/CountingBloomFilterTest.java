@@ -0,0 +1,40 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ *
+ */
+public class CountingBloomFilterTest {
+	
+	@Test
+	public void testRemovedKeysAreFilteredOut() {
+		
+		CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+		for (int i = 0; i < 1000; i++) {
+			filter.add("output " + i);
+		}
+		for (int i = 0; i < 1000; i += 2) {
+			filter.remove("output " + i);
+		}
+		
+		int falsePositives = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (i % 2 == 1) {
+				assertTrue(filter.mightContain("output " + i));
+			} else if (filter.mightContain("output " + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("too many false positives: " + falsePositives, falsePositives < 50);
+		assertFalse(filter.mightContain("never added"));
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ *
+ */
+public class HistoryIndexTest {
+	
+	@Rule
+	public final Wallets wallets = new Wallets();
+	
+	@Test
+	public void testBalanceAtEveryHeight() {
+		
+		Wallet bank = wallets.open("History Bank");
+		Wallet walletAB = wallets.open("Wallet AB");
+		Wallet walletAC = wallets.open("Wallet AC");
+		Blockchain blockChain = new Blockchain();
+		
+		Block genesisBlock = blockChain.addOriginTransaction(bank, walletAB, 100);
+		
+		Block block1 = new Block(genesisBlock.getHash());
+		Transaction payment = walletAB.sendCoins(walletAC.getAddress(), 30);
+		assertTrue(block1.addTransaction(payment));
+		blockChain.appendBlock(block1);
+		
+		Block block2 = new Block(block1.getHash());
+		blockChain.appendBlock(block2);
+		
+		Block block3 = new Block(block2.getHash());
+		assertTrue(block3.addTransaction(walletAC.sendCoins(walletAB.getAddress(), 10)));
+		blockChain.appendBlock(block3);
+		
+		HistoryIndex history = blockChain.getHistory();
+		assertEquals(100, history.getBalance(walletAB.getAddress(), 0));
+		assertEquals(70, history.getBalance(walletAB.getAddress(), 1));
+		assertEquals(70, history.getBalance(walletAB.getAddress(), 2));
+		assertEquals(80, history.getBalance(walletAB.getAddress(), 3));
+		assertEquals(0, history.getBalance(walletAC.getAddress(), 0));
+		assertEquals(30, history.getBalance(walletAC.getAddress(), 2));
+		assertEquals(20, history.getBalance(walletAC.getAddress(), 3));
+		assertEquals(walletAB.getBalance(), history.getBalance(walletAB.getAddress(), Integer.MAX_VALUE));
+		
+		List<HistoryEntry> entries = history.getTransactions(walletAC.getAddress());
+		assertEquals(2, entries.size());
+		assertEquals(payment.getTransactionId(), entries.get(0).getTransactionId());
+		assertEquals(1, entries.get(0).getHeight());
+		assertEquals(30, entries.get(0).getDelta());
+		assertEquals(-10, entries.get(1).getDelta());
+	}
+
+}
@@ -0,0 +1,152 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ *
+ */
+public class LedgerSnapshotTest {
+	
+	@Rule
+	public final Wallets wallets = new Wallets();
+	
+	@Test
+	public void testSnapshotStaysPinnedAtItsHeight() {
+		
+		Wallet bank = wallets.open("Snapshot Bank");
+		Wallet walletT = wallets.open("Wallet T");
+		Wallet walletU = wallets.open("Wallet U");
+		Blockchain blockChain = new Blockchain();
+		
+		Block genesisBlock = blockChain.addOriginTransaction(bank, walletT, 100);
+		LedgerSnapshot before = blockChain.snapshot();
+		
+		Block block = new Block(genesisBlock.getHash());
+		Transaction payment = walletT.sendCoins(walletU.getAddress(), 30);
+		assertTrue(block.addTransaction(payment));
+		blockChain.appendBlock(block);
+		LedgerSnapshot after = blockChain.snapshot();
+		
+		assertEquals(1, before.getHeight());
+		assertEquals(1, before.getBlocks().size());
+		assertEquals(100, before.getBalance(walletT.getAddress()));
+		assertEquals(0, before.getBalance(walletU.getAddress()));
+		assertEquals(1, before.getUnspentOutputs().size());
+		
+		assertEquals(2, after.getHeight());
+		assertEquals(block, after.getLatestBlock());
+		assertEquals(70, after.getBalance(walletT.getAddress()));
+		assertEquals(30, after.getUnspentOutputs().balances().getBalance(walletU.getAddress()));
+		assertEquals(2, after.getUnspentOutputs().size());
+		assertNull(after.getUnspentOutputs().get(genesisBlock.getTransactions().get(0).getOutputs().get(0).getId()));
+	}
+	
+	@Test
+	public void testOlderOutputsStayIntact() {
+		
+		// enough outputs for several levels of the trie
+		Transaction created = new Transaction("Wallet AL", "Wallet AL", 5000, new ArrayList<>());
+		for (int i = 0; i < 5000; i++) {
+			created.getOutputs().add(new TransactionOutput("Wallet AL", 1, "txAL" + i));
+		}
+		UtxoSnapshot first = UtxoSnapshot.EMPTY.apply(block(created));
+		
+		// spend every other one and add some more
+		List<TransactionInput> inputs = new ArrayList<>();
+		for (int i = 0; i < 5000; i += 2) {
+			TransactionInput input = new TransactionInput(created.getOutputs().get(i).getId());
+			input.setUnspentTransactionOutput(created.getOutputs().get(i));
+			inputs.add(input);
+		}
+		Transaction spending = new Transaction("Wallet AL", "Wallet AL", 2500, inputs);
+		for (int i = 0; i < 1000; i++) {
+			spending.getOutputs().add(new TransactionOutput("Wallet AL", 2, "txAL'" + i));
+		}
+		UtxoSnapshot second = first.apply(block(spending));
+		
+		assertEquals(5000, first.size());
+		assertEquals(5000, first.values().size());
+		assertEquals(5000, first.balances().getBalance("Wallet AL"));
+		for (TransactionOutput output : created.getOutputs()) {
+			assertEquals(output, first.get(output.getId()));
+		}
+		
+		assertEquals(3500, second.size());
+		assertEquals(3500, second.values().size());
+		assertEquals(4500, second.balances().getBalance("Wallet AL"));
+		for (int i = 0; i < 5000; i++) {
+			TransactionOutput output = created.getOutputs().get(i);
+			assertEquals(i % 2 == 0 ? null : output, second.get(output.getId()));
+		}
+		for (TransactionOutput output : spending.getOutputs()) {
+			assertEquals(output, second.get(output.getId()));
+			assertNull(first.get(output.getId()));
+		}
+	}
+	
+	private static Block block(Transaction transaction) {
+		Block block = new Block("0");
+		block.setTransactions(new ArrayList<>(Collections.singletonList(transaction)));
+		return block;
+	}
+	
+	@Test
+	public void testPruningKeepsEarlierSnapshotsWhole() {
+		
+		Blockchain blockChain = new Blockchain();
+		blockChain.setPruneDepth(3);
+		blockChain.initializeChain();
+		LedgerSnapshot early = null;
+		for (int i = 1; i < 100; i++) {
+			blockChain.appendBlock(new Block(blockChain.getLatestBlock().getHash()));
+			if (i == 9) {
+				early = blockChain.snapshot();
+			}
+		}
+		LedgerSnapshot latest = blockChain.snapshot();
+		
+		assertEquals(10, early.getHeight());
+		assertEquals(7, early.getPrunedHeight());
+		assertTrue(early.getBlocks().get(6).isPruned());
+		assertFalse(early.getBlocks().get(7).isPruned());
+		
+		assertEquals(100, latest.getHeight());
+		assertEquals(97, latest.getPrunedHeight());
+		for (int height = 0; height < 100; height++) {
+			Block block = latest.getBlocks().get(height);
+			assertEquals(blockChain.getBlockchain().get(height).getHash(), block.getHash());
+			assertEquals(height < 97, block.isPruned());
+		}
+		// the early snapshot still has the block whole, even though it was pruned since
+		assertFalse(early.getBlock(8).isPruned());
+		assertEquals(latest.getBlock(8).getHash(), early.getBlock(8).getHash());
+	}
+	
+	@Test
+	public void testChainsDoNotShareBlocks() {
+		
+		Blockchain first = new Blockchain();
+		Blockchain second = new Blockchain();
+		
+		Block firstGenesis = first.initializeChain();
+		Block secondGenesis = second.initializeChain();
+		
+		assertEquals(firstGenesis, first.snapshot().getLatestBlock());
+		assertEquals(secondGenesis, second.snapshot().getLatestBlock());
+	}
+
+}
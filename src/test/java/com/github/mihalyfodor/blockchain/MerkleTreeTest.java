@@ -0,0 +1,102 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ * 
+ */
+public class MerkleTreeTest {
+
+	@Rule
+	public final Wallets wallets = new Wallets();
+
+	@Test
+	public void testEveryProofLeadsToTheRoot() {
+
+		for (int size = 1; size <= 9; size++) {
+			List<String> transactionIds = transactionIds(size);
+			String root = MerkleTree.root(transactionIds).toString();
+
+			for (int index = 0; index < size; index++) {
+				MerkleProof proof = MerkleTree.proof("block", transactionIds, index);
+				assertTrue(proof.verify(root));
+				assertTrue(proof.getSiblings().size() <= 32 - Integer.numberOfLeadingZeros(size - 1));
+			}
+		}
+	}
+
+	@Test
+	public void testForeignTransactionFails() {
+
+		List<String> transactionIds = transactionIds(5);
+		String root = MerkleTree.root(transactionIds).toString();
+		MerkleProof proof = MerkleTree.proof("block", transactionIds, 2);
+
+		MerkleProof forged = new MerkleProof("block", "not in the block", 2, 5, proof.getSiblings());
+		assertFalse(forged.verify(root));
+
+		MerkleProof moved = new MerkleProof("block", proof.getTransactionId(), 3, 5, proof.getSiblings());
+		assertFalse(moved.verify(root));
+		
+		MerkleProof resized = new MerkleProof("block", proof.getTransactionId(), 2, 4, proof.getSiblings());
+		assertFalse(resized.verify(root));
+	}
+	
+	@Test
+	public void testRepeatedLastTransactionChangesRoot() {
+		
+		for (int size = 1; size <= 9; size++) {
+			List<String> transactionIds = transactionIds(size);
+			List<String> repeated = new ArrayList<>(transactionIds);
+			repeated.add(transactionIds.get(size - 1));
+			
+			assertNotEquals(MerkleTree.root(transactionIds), MerkleTree.root(repeated));
+		}
+	}
+
+	@Test
+	public void testLightClientVerifiesPayment() {
+
+		Wallet bank = wallets.open("Light Bank");
+		Wallet walletE = wallets.open("Wallet E");
+		Wallet walletF = wallets.open("Wallet F");
+		Blockchain blockChain = new Blockchain();
+
+		Block genesisBlock = blockChain.addOriginTransaction(bank, walletE, 50);
+		Block block = new Block(genesisBlock.getHash());
+		Transaction payment = walletE.sendCoins(walletF.getAddress(), 20);
+		assertTrue(block.addTransaction(payment));
+		blockChain.addBlock(block);
+
+		HeaderChain headerChain = new HeaderChain();
+		assertEquals(2, headerChain.sync(blockChain));
+
+		MerkleProof proof = blockChain.getMerkleProof(payment.getTransactionId());
+		assertNotNull(proof);
+		assertTrue(headerChain.verifyTransaction(proof));
+		assertEquals(1, headerChain.getConfirmations(proof.getBlockHash()));
+	}
+
+	private List<String> transactionIds(int size) {
+		List<String> transactionIds = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			transactionIds.add("transaction " + i);
+		}
+		return transactionIds;
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ * 
+ */
+public class MiningServiceTest {
+
+	@Rule
+	public final Wallets wallets = new Wallets();
+
+	private Wallet walletC;
+	private Wallet walletD;
+	private Wallet bank;
+	private Blockchain blockChain;
+	private MiningService miningService;
+
+	@Before
+	public void setUp() {
+		walletC = wallets.open("Wallet C");
+		walletD = wallets.open("Wallet D");
+		bank = wallets.open("Mining Bank");
+		blockChain = new Blockchain();
+		blockChain.addOriginTransaction(bank, walletC, 100);
+		miningService = new MiningService(blockChain);
+	}
+
+	@After
+	public void tearDown() {
+		miningService.close();
+	}
+
+	@Test
+	public void testNextBlockIsAssembledWhileMining() throws Exception {
+
+		assertTrue(miningService.addTransaction(walletC.sendCoins(walletD.getAddress(), 40)));
+		CompletableFuture<Block> first = miningService.mineCandidate();
+
+		// the previous block is still being mined, we can keep adding transactions
+		assertTrue(miningService.addTransaction(walletD.sendCoins(walletC.getAddress(), 10)));
+		CompletableFuture<Block> second = miningService.mineCandidate();
+
+		Block firstBlock = first.get();
+		Block secondBlock = second.get();
+
+		assertEquals(3, blockChain.getBlockchain().size());
+		assertEquals(firstBlock.getHash(), secondBlock.getPreviousHash());
+		assertEquals(secondBlock, blockChain.getLatestBlock());
+		assertEquals(70, walletC.getBalance());
+		assertEquals(30, walletD.getBalance());
+		assertTrue(blockChain.isChainValid());
+	}
+
+	@Test
+	public void testMiningRestartsOnNewTip() throws Exception {
+
+		Block foreignBlock = new Block(blockChain.getLatestBlock().getHash());
+		foreignBlock.mineBlock();
+
+		CompletableFuture<Block> mining = miningService.mineCandidate();
+		assertTrue(miningService.acceptBlock(foreignBlock));
+
+		Block minedBlock = mining.get();
+
+		assertEquals(3, blockChain.getBlockchain().size());
+		assertEquals(foreignBlock.getHash(), minedBlock.getPreviousHash());
+		assertTrue(blockChain.isChainValid());
+	}
+
+}
@@ -0,0 +1,47 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+/**
+ * Compares the hash rate of the scalar and the multi-lane miner. Not a proper benchmark, only
+ * gives an idea of the speedup on the machine running it. Kept out of the tests, run it by hand:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.github.mihalyfodor.blockchain.MultiLaneMinerBenchmark
+ * </pre>
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class MultiLaneMinerBenchmark {
+
+	public static void main(String[] args) {
+
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		long scalarNanos = 0;
+		long laneNanos = 0;
+		long attempts = 0;
+
+		for (int i = 0; i < rounds; i++) {
+			Block scalar = new Block("previous " + i);
+			Block lanes = new Block("previous " + i);
+			lanes.setTimestamp(scalar.getTimestamp());
+			lanes.setHash(lanes.calculateHash());
+
+			long start = System.nanoTime();
+			BlockMiner.SCALAR.mine(scalar, () -> false);
+			scalarNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			new MultiLaneMiner().mine(lanes, () -> false);
+			laneNanos += System.nanoTime() - start;
+
+			attempts += lanes.getDelta();
+		}
+
+		System.out.println(String.format("%d hashes: scalar %d ms, %d lanes %d ms", attempts, scalarNanos / 1_000_000,
+				MultiLaneMiner.DEFAULT_LANES, laneNanos / 1_000_000));
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+
+/**
+ * @author Mihaly Fodor
+ * 
+ */
+public class MultiLaneMinerTest {
+
+	@Test
+	public void testLanesMatchReferenceHash() {
+
+		MultiLaneMiner miner = new MultiLaneMiner();
+		int[] firstDeltas = { 0, 5, 96, 995, 99_999_995, Integer.MAX_VALUE - 3 };
+
+		// prefix lengths around the chunk boundaries, so the tail takes one or two chunks
+		for (int prefixLength = 0; prefixLength <= 140; prefixLength++) {
+			String prefix = Strings.repeat("a", prefixLength);
+
+			for (int firstDelta : firstDeltas) {
+				int count = (int) Math.min(MultiLaneMiner.DEFAULT_LANES, nextPowerOfTen(firstDelta) - firstDelta);
+				count = (int) Math.min(count, Integer.MAX_VALUE - (long) firstDelta + 1);
+
+				String[] expected = new String[count];
+				for (int lane = 0; lane < count; lane++) {
+					expected[lane] = Hashing.sha256()
+							.hashString(prefix + (firstDelta + lane), StandardCharsets.UTF_8).toString();
+				}
+				assertArrayEquals(prefix + firstDelta, expected, miner.hashes(prefix, firstDelta, count));
+			}
+		}
+	}
+
+	@Test
+	public void testSameDeltaAsScalarMining() {
+
+		Block scalar = new Block("previous");
+		Block lanes = new Block("previous");
+		lanes.setTimestamp(scalar.getTimestamp());
+		lanes.setHash(lanes.calculateHash());
+
+		assertTrue(BlockMiner.SCALAR.mine(scalar, () -> false));
+		assertTrue(new MultiLaneMiner().mine(lanes, () -> false));
+
+		assertEquals(scalar.getDelta(), lanes.getDelta());
+		assertEquals(scalar.getHash(), lanes.getHash());
+		assertEquals(lanes.calculateHash(), lanes.getHash());
+	}
+
+	@Test
+	public void testMiningServiceWithLanes() throws Exception {
+
+		Blockchain blockChain = new Blockchain();
+		blockChain.initializeChain();
+
+		try (MiningService miningService = new MiningService(blockChain, new MultiLaneMiner())) {
+			Block block = miningService.mineCandidate().get();
+
+			assertEquals(block, blockChain.getLatestBlock());
+			assertTrue(blockChain.isChainValid());
+		}
+	}
+
+	private static long nextPowerOfTen(int value) {
+		long power = 10;
+		while (power <= value) {
+			power *= 10;
+		}
+		return power;
+	}
+
+}
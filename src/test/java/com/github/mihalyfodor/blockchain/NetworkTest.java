@@ -0,0 +1,310 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ * 
+ */
+public class NetworkTest {
+
+	@Rule
+	public final Wallets wallets = new Wallets();
+
+	@Test
+	public void testBlockReachesEveryNode() throws Exception {
+
+		Wallet bank = wallets.open("Network Bank");
+		Wallet walletAD = wallets.open("Wallet AD");
+		Wallet walletAE = wallets.open("Wallet AE");
+		Block genesisBlock = new Blockchain().addOriginTransaction(bank, walletAD, 100);
+
+		try (Network network = new Network(new InMemoryTransport(1, TimeUnit.MILLISECONDS), genesisBlock, true)) {
+			Node nodeA = network.addNode("A");
+			Node nodeB = network.addNode("B");
+			Node nodeC = network.addNode("C");
+			network.connect("A", "B");
+			network.connect("B", "C");
+
+			// the transaction travels C, B, A and the block back A, B, C
+			Transaction payment = walletAD.sendCoins(walletAE.getAddress(), 30);
+			assertTrue(nodeC.submitTransaction(payment));
+			awaitInPool(nodeA, payment.getTransactionId());
+
+			Block block = nodeA.mineBlock();
+			assertNotNull(block);
+			assertTrue(network.getStats().awaitPropagated(1, 10, TimeUnit.SECONDS));
+
+			for (Node node : network.getNodes()) {
+				assertEquals(block.getHash(), node.getBlockchain().getLatestBlock().getHash());
+				assertTrue(node.getBlockchain().isChainValid());
+				assertTrue(node.getPool().isEmpty());
+			}
+			assertEquals(1, network.getStats().getTransactionsConfirmed());
+			assertEquals(0, network.getStats().getOrphans());
+			assertEquals(70, walletAD.getBalance());
+			assertEquals(30, walletAE.getBalance());
+
+			// every hop only needed the header and the id of the transaction
+			assertEquals(2 * (Block.HEADER_SIZE + Message.TRANSACTION_ID_SIZE), network.getStats().getAverageBytesPerBlock(), 0);
+			System.out.println(network.getStats());
+		}
+	}
+
+	@Test
+	public void testMissingTransactionsAreRequested() throws Exception {
+
+		Wallet bank = wallets.open("Late Bank");
+		Wallet walletAF = wallets.open("Wallet AF");
+		Wallet walletAG = wallets.open("Wallet AG");
+		Block genesisBlock = new Blockchain().addOriginTransaction(bank, walletAF, 100);
+
+		try (Network network = new Network(new InMemoryTransport(), genesisBlock, true)) {
+			Node nodeA = network.addNode("A");
+			Transaction payment = walletAF.sendCoins(walletAG.getAddress(), 45);
+			assertTrue(nodeA.submitTransaction(payment));
+
+			// joins after the transaction was gossiped, so it only learns about it from the block
+			Node nodeB = network.addNode("B");
+			network.connect("A", "B");
+
+			Block block = nodeA.mineBlock();
+			assertNotNull(block);
+			assertTrue(network.getStats().awaitPropagated(1, 10, TimeUnit.SECONDS));
+
+			assertEquals(block.getHash(), nodeB.getBlockchain().getLatestBlock().getHash());
+			assertEquals(payment.getTransactionId(),
+					nodeB.getBlockchain().getLatestBlock().getTransactions().get(0).getTransactionId());
+			assertEquals(Block.HEADER_SIZE + 2 * Message.TRANSACTION_ID_SIZE + payment.getSerializedSize(),
+					network.getStats().getAverageBytesPerBlock(), 0);
+		}
+	}
+
+	@Test
+	public void testFullBlocksOverLoopback() throws Exception {
+
+		Wallet bank = wallets.open("Loopback Bank");
+		Wallet walletAH = wallets.open("Wallet AH");
+		Wallet walletAI = wallets.open("Wallet AI");
+		Block genesisBlock = new Blockchain().addOriginTransaction(bank, walletAH, 100);
+		LoopbackTransport transport = new LoopbackTransport();
+
+		try (Network network = new Network(transport, genesisBlock, false)) {
+			Node nodeA = network.addNode("A");
+			Node nodeB = network.addNode("B");
+			Node nodeC = network.addNode("C");
+			network.connectAll();
+
+			Transaction payment = walletAH.sendCoins(walletAI.getAddress(), 60);
+			assertTrue(nodeB.submitTransaction(payment));
+			awaitInPool(nodeA, payment.getTransactionId());
+
+			Block block = nodeA.mineBlock();
+			assertNotNull(block);
+			assertTrue(network.getStats().awaitPropagated(1, 10, TimeUnit.SECONDS));
+
+			assertEquals(block.getHash(), nodeB.getBlockchain().getLatestBlock().getHash());
+			assertEquals(block.getHash(), nodeC.getBlockchain().getLatestBlock().getHash());
+			assertTrue(nodeC.getBlockchain().isChainValid());
+			assertEquals(1, network.getStats().getTransactionsConfirmed());
+			assertTrue(transport.getBytesSent() > 0);
+			System.out.println(network.getStats());
+		}
+	}
+
+	@Test
+	public void testWireFormatCarriesNoTrustedIds() throws Exception {
+
+		Wallet bank = wallets.open("Wire Bank");
+		Wallet walletAQ = wallets.open("Wallet AQ");
+		Wallet walletAR = wallets.open("Wallet AR");
+		Block genesisBlock = new Blockchain().addOriginTransaction(bank, walletAQ, 100);
+		Block block = new Block(genesisBlock.getHash());
+		Transaction payment = walletAQ.sendCoins(walletAR.getAddress(), 40);
+		assertTrue(block.addTransaction(payment));
+
+		try (LoopbackTransport transport = new LoopbackTransport()) {
+			String json = new String(transport.encode(Message.block("A", block)), StandardCharsets.UTF_8);
+
+			// the ids are calculated again by the receiver, the outputs carry addresses
+			assertFalse(json.contains("\"transactionId\""));
+			assertFalse(json.contains("ownerId"));
+			assertTrue(json.contains(walletAR.getAddress()));
+
+			Transaction received = transport.decode(json.getBytes(StandardCharsets.UTF_8)).getTransactions().get(0);
+			assertEquals(payment.getTransactionId(), received.getTransactionId());
+			assertEquals(payment.getOutputs().get(0).getId(), received.getOutputs().get(0).getId());
+			assertEquals(walletAR.getAddress(), received.getOutputs().get(0).getRecipient());
+
+			// a peer changing the value can't keep the id, so the block no longer matches its hash
+			String tampered = json.replace("\"value\":40", "\"value\":400");
+			Transaction forged = transport.decode(tampered.getBytes(StandardCharsets.UTF_8)).getTransactions().get(0);
+			assertEquals(400, forged.getValue());
+			assertNotEquals(payment.getTransactionId(), forged.getTransactionId());
+		}
+	}
+
+	@Test
+	public void testBlocksOfOtherNodesLeaveWalletsAlone() throws Exception {
+
+		Wallet bank = wallets.open("Candidate Bank");
+		Wallet walletAZ = wallets.open("Wallet AZ");
+		Wallet walletBA = wallets.open("Wallet BA");
+		Block genesisBlock = new Blockchain().addOriginTransaction(bank, walletAZ, 100);
+
+		try (Network network = new Network(new InMemoryTransport(), genesisBlock, false)) {
+			Node nodeA = network.addNode("A");
+			Node nodeB = network.addNode("B");
+
+			Transaction payment = walletAZ.sendCoins(walletBA.getAddress(), 30);
+			assertTrue(nodeA.submitTransaction(payment));
+			assertTrue(nodeB.submitTransaction(payment));
+
+			// the wallets follow the first node, a block of the other one changes nothing for them
+			Block blockB = nodeB.mineBlock();
+			assertEquals(1, blockB.getTransactions().size());
+			assertEquals(100, walletAZ.getBalance());
+			assertEquals(0, walletBA.getBalance());
+
+			// nor does it spend the inputs for the first node, which can still take the payment
+			assertTrue(nodeA.getPool().contains(payment.getTransactionId()));
+			Block blockA = nodeA.mineBlock();
+			assertEquals(1, blockA.getTransactions().size());
+			assertEquals(70, walletAZ.getBalance());
+			assertEquals(30, walletBA.getBalance());
+		}
+	}
+
+	@Test
+	public void testLongerBranchIsFollowed() throws Exception {
+
+		Wallet bank = wallets.open("Fork Bank");
+		Wallet walletBB = wallets.open("Wallet BB");
+		Wallet walletBC = wallets.open("Wallet BC");
+		Block genesisBlock = new Blockchain().addOriginTransaction(bank, walletBB, 100);
+
+		try (Network network = new Network(new InMemoryTransport(), genesisBlock, false)) {
+			Node nodeA = network.addNode("A");
+			Node nodeB = network.addNode("B");
+
+			Transaction payment = walletBB.sendCoins(walletBC.getAddress(), 30);
+			assertTrue(nodeA.submitTransaction(payment));
+			Block blockA = nodeA.mineBlock();
+			assertEquals(70, walletBB.getBalance());
+			assertSame(blockA, nodeA.getBlock(blockA.getHash()));
+			assertSame(payment, nodeA.getConfirmedTransaction(payment.getTransactionId()));
+
+			// B builds a longer branch without the payment
+			Block blockB1 = nodeB.mineBlock();
+			Block blockB2 = nodeB.mineBlock();
+
+			// a branch as long as ours is kept aside
+			nodeA.receive(Message.block("B", blockB1));
+			assertEquals(blockA.getHash(), nodeA.getBlockchain().getLatestBlock().getHash());
+			assertEquals(1, network.getStats().getOrphans());
+
+			// a longer one is switched to, and our block is left behind
+			nodeA.receive(Message.block("B", blockB2));
+			assertEquals(blockB2.getHash(), nodeA.getBlockchain().getLatestBlock().getHash());
+			assertEquals(3, nodeA.getBlockchain().snapshot().getHeight());
+			assertTrue(nodeA.getBlockchain().isChainValid());
+			assertEquals(2, network.getStats().getOrphans());
+
+			// the payment is not confirmed anymore, so it is waiting again
+			assertNull(nodeA.getBlock(blockA.getHash()));
+			assertNull(nodeA.getConfirmedTransaction(payment.getTransactionId()));
+			assertEquals(100, walletBB.getBalance());
+			assertEquals(0, walletBC.getBalance());
+			assertTrue(nodeA.getPool().contains(payment.getTransactionId()));
+
+			Block blockA3 = nodeA.mineBlock();
+			assertEquals(blockB2.getHash(), blockA3.getPreviousHash());
+			assertEquals(1, blockA3.getTransactions().size());
+			assertSame(payment, nodeA.getConfirmedTransaction(payment.getTransactionId()));
+			assertEquals(70, walletBB.getBalance());
+			assertEquals(30, walletBC.getBalance());
+		}
+	}
+
+	@Test
+	public void testInvalidBlocksAreRejected() throws Exception {
+
+		Wallet bank = wallets.open("Forger Bank");
+		Wallet walletBD = wallets.open("Wallet BD");
+		Wallet walletBE = wallets.open("Wallet BE");
+		Block genesisBlock = new Blockchain().addOriginTransaction(bank, walletBD, 100);
+		String genesisOutputId = genesisBlock.getTransactions().get(0).getOutputs().get(0).getId();
+
+		try (Network network = new Network(new InMemoryTransport(), genesisBlock, false)) {
+			Node nodeA = network.addNode("A");
+
+			// more coins than the input holds
+			Transaction overspend = signed(new Transaction(walletBD.getAddress(), walletBE.getAddress(), 500,
+					inputs(genesisOutputId)));
+			nodeA.receive(Message.block("B", minedBlock(genesisBlock, overspend)));
+			assertEquals(genesisBlock.getHash(), nodeA.getBlockchain().getLatestBlock().getHash());
+
+			// an input nobody created
+			Transaction unknown = signed(new Transaction(walletBD.getAddress(), walletBE.getAddress(), 10,
+					inputs("no such output")));
+			nodeA.receive(Message.block("B", minedBlock(genesisBlock, unknown)));
+			assertEquals(genesisBlock.getHash(), nodeA.getBlockchain().getLatestBlock().getHash());
+
+			// the same input spent twice in the block
+			Transaction first = signed(new Transaction(walletBD.getAddress(), walletBE.getAddress(), 10,
+					inputs(genesisOutputId)));
+			Transaction second = signed(new Transaction(walletBD.getAddress(), walletBE.getAddress(), 20,
+					inputs(genesisOutputId)));
+			nodeA.receive(Message.block("B", minedBlock(genesisBlock, first, second)));
+			assertEquals(genesisBlock.getHash(), nodeA.getBlockchain().getLatestBlock().getHash());
+
+			assertEquals(100, walletBD.getBalance());
+			assertEquals(0, walletBE.getBalance());
+		}
+	}
+
+	private static Transaction signed(Transaction transaction) {
+		transaction.generateSignature();
+		return transaction;
+	}
+
+	private static List<TransactionInput> inputs(String outputId) {
+		return new ArrayList<>(Collections.singletonList(new TransactionInput(outputId)));
+	}
+
+	private static Block minedBlock(Block previous, Transaction... transactions) {
+		Block block = new Block(previous.getHash());
+		block.setTransactions(new ArrayList<>(Arrays.asList(transactions)));
+		block.setHash(block.calculateHash());
+		block.mineBlock();
+		return block;
+	}
+
+	private static void awaitInPool(Node node, String transactionId) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!node.getPool().contains(transactionId)) {
+			assertTrue("Transaction did not reach node " + node.getId(), System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+}
@@ -5,6 +5,7 @@ package com.github.mihalyfodor.blockchain;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -13,6 +14,7 @@ import java.util.ArrayList;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 import com.google.gson.GsonBuilder;
@@ -23,6 +25,9 @@ import com.google.gson.GsonBuilder;
  */
 public class TransactionTest {
 	
+	@Rule
+	public final Wallets wallets = new Wallets();
+	
 	private Wallet walletA;
 	private Wallet walletB;
 	private Wallet bank;
@@ -30,9 +35,9 @@ public class TransactionTest {
 	
 	@Before
 	public void setUp() {
-		walletA = new Wallet("Wallet A");
-		walletB = new Wallet("Wallet B");
-		bank = new Wallet("Bank");
+		walletA = wallets.open("Wallet A");
+		walletB = wallets.open("Wallet B");
+		bank = wallets.open("Bank");
 		blockChain = new Blockchain();
 	}
 	
@@ -74,6 +79,71 @@ public class TransactionTest {
 		assertTrue(blockChain.isChainValid());
 	}
 	
+	@Test
+	public void testSamePaymentTwiceKeepsBothOutputs() {
+		
+		Wallet repeatBank = wallets.open("Repeat Bank");
+		Wallet walletAS = wallets.open("Wallet AS");
+		Wallet walletAT = wallets.open("Wallet AT");
+		Block genesisBlock = blockChain.addOriginTransaction(repeatBank, walletAS, 100);
+		Block block = new Block(genesisBlock.getHash());
+		
+		Transaction first = walletAS.sendCoins(walletAT.getAddress(), 10);
+		assertTrue(block.addTransaction(first));
+		Transaction second = walletAS.sendCoins(walletAT.getAddress(), 10);
+		assertTrue(block.addTransaction(second));
+		
+		assertNotEquals(first.getTransactionId(), second.getTransactionId());
+		assertNotEquals(first.getOutputs().get(0).getId(), second.getOutputs().get(0).getId());
+		assertEquals(80, walletAS.getBalance());
+		assertEquals(20, walletAT.getBalance());
+	}
+	
+	@Test
+	public void testDoubleSpendIsRejected() {
+		
+		Wallet walletX = wallets.open("Wallet X");
+		Wallet walletY = wallets.open("Wallet Y");
+		Block genesisBlock = blockChain.addOriginTransaction(bank, walletX, 100);
+		
+		// the output is reserved by the first transaction, giving it back lets the second reuse it
+		Transaction first = walletX.sendCoins(walletY.getAddress(), 40);
+		assertNull(walletX.sendCoins(walletY.getAddress(), 30));
+		walletX.release(first);
+		Transaction second = walletX.sendCoins(walletY.getAddress(), 30);
+		
+		Block block = new Block(genesisBlock.getHash());
+		assertTrue(block.addTransaction(first));
+		assertFalse(block.addTransaction(second));
+		
+		assertEquals(60, walletX.getBalance());
+		assertEquals(40, walletY.getBalance());
+	}
+	
+	@Test
+	public void testSendsInARowUseDifferentOutputs() {
+		
+		Wallet walletAX = wallets.open("Wallet AX");
+		Wallet walletAY = wallets.open("Wallet AY");
+		new Blockchain().addOriginTransaction(bank, walletAX, 60);
+		Block genesisBlock = blockChain.addOriginTransaction(bank, walletAX, 40);
+		
+		Transaction first = walletAX.sendCoins(walletAY.getAddress(), 30);
+		Transaction second = walletAX.sendCoins(walletAY.getAddress(), 30);
+		assertNotNull(second);
+		assertNotEquals(first.getInputs().get(0).getTransactionOutputId(), second.getInputs().get(0).getTransactionOutputId());
+		assertNull(walletAX.sendCoins(walletAY.getAddress(), 30));
+		
+		Block block = new Block(genesisBlock.getHash());
+		assertTrue(block.addTransaction(first));
+		assertTrue(block.addTransaction(second));
+		assertEquals(40, walletAX.getBalance());
+		assertEquals(60, walletAY.getBalance());
+		
+		// the change is free again once the transactions are processed
+		assertNotNull(walletAX.sendCoins(walletAY.getAddress(), 30));
+	}
+	
 	private Block sendSomeMoneyFromThinAir() {
 		
 		printStatusBefore("Money from thin air:");
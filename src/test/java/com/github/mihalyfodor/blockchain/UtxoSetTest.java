@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mihaly Fodor
+ *
+ */
+public class UtxoSetTest {
+	
+	private UtxoSet unspentOutputs;
+	private List<String> events;
+	
+	@Before
+	public void setUp() {
+		unspentOutputs = new UtxoSet();
+		events = new ArrayList<>();
+	}
+	
+	@Test
+	public void testListenersOnlyHearAboutTheirAddress() {
+		
+		TransactionOutput existing = new TransactionOutput("Wallet O", 5, "tx0");
+		unspentOutputs.add(existing);
+		unspentOutputs.subscribe("Wallet O", recordingListener());
+		
+		TransactionOutput created = new TransactionOutput("Wallet O", 10, "tx1");
+		unspentOutputs.add(created);
+		unspentOutputs.add(new TransactionOutput("Wallet P", 20, "tx1"));
+		unspentOutputs.spend(existing.getId());
+		
+		assertEquals(3, events.size());
+		assertEquals("created " + existing.getId(), events.get(0));
+		assertEquals("created " + created.getId(), events.get(1));
+		assertEquals("spent " + existing.getId(), events.get(2));
+	}
+	
+	@Test
+	public void testSpendingTwiceOnlyNotifiesOnce() {
+		
+		unspentOutputs.subscribe("Wallet O", recordingListener());
+		TransactionOutput output = new TransactionOutput("Wallet O", 10, "tx2");
+		unspentOutputs.add(output);
+		
+		assertEquals(output, unspentOutputs.spend(output.getId()));
+		assertNull(unspentOutputs.spend(output.getId()));
+		assertEquals(2, events.size());
+	}
+	
+	@Test
+	public void testBalancesInOnePass() {
+		
+		for (int i = 0; i < 1000; i++) {
+			unspentOutputs.add(new TransactionOutput(i % 2 == 0 ? "Wallet Q" : "Wallet R", i, "tx" + i));
+		}
+		
+		BalanceSnapshot balances = unspentOutputs.balances();
+		assertEquals(249500, balances.getBalance("Wallet Q"));
+		assertEquals(250000, balances.getBalance("Wallet R"));
+		assertEquals(0, balances.getBalance("Wallet S"));
+		
+		Map<String, Long> reported = new HashMap<>();
+		balances.forEach(reported::put);
+		assertEquals(2, reported.size());
+		assertEquals(Long.valueOf(250000), reported.get("Wallet R"));
+	}
+	
+	@Test
+	public void testAddressesInternedDuringThePass() {
+		
+		// the outputs are created while the balances are added up, so their owners are new to the table
+		Stream<TransactionOutput> outputs = IntStream.range(0, 100).parallel()
+				.mapToObj(i -> new TransactionOutput("Wallet AK" + i % 10, i, "txAK" + i));
+		BalanceSnapshot balances = BalanceSnapshot.of(outputs, Blockchain.addresses);
+		
+		assertEquals(450, balances.getBalance("Wallet AK0"));
+		assertEquals(540, balances.getBalance("Wallet AK9"));
+	}
+	
+	@Test
+	public void testClosedWalletStopsListening() {
+		
+		Wallet walletAJ = new Wallet("Wallet AJ");
+		Blockchain.unspentTransactionOutputs.add(new TransactionOutput("Wallet AJ", 10, "txAJ0"));
+		assertEquals(10, walletAJ.getBalance());
+		
+		walletAJ.close();
+		Blockchain.unspentTransactionOutputs.add(new TransactionOutput("Wallet AJ", 20, "txAJ1"));
+		assertEquals(10, walletAJ.getBalance());
+	}
+	
+	private UtxoListener recordingListener() {
+		return new UtxoListener() {
+			
+			@Override
+			public void outputCreated(TransactionOutput output) {
+				events.add("created " + output.getId());
+			}
+			
+			@Override
+			public void outputSpent(TransactionOutput output) {
+				events.add("spent " + output.getId());
+			}
+		};
+	}
+
+}
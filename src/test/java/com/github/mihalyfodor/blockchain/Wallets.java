@@ -0,0 +1,40 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Opens the wallets of a test and closes them once it is over, so they stop listening to the
+ * unspent outputs shared by all tests.
+ * 
+ * @author Mihaly Fodor
+ * 
+ */
+public class Wallets extends ExternalResource {
+
+	private final List<Wallet> opened = new ArrayList<Wallet>();
+
+	/**
+	 * @param address the address of the wallet
+	 * @return a new wallet, closed after the test
+	 */
+	public Wallet open(String address) {
+		Wallet wallet = new Wallet(address);
+		opened.add(wallet);
+		return wallet;
+	}
+
+	@Override
+	protected void after() {
+		for (Wallet wallet : opened) {
+			wallet.close();
+		}
+		opened.clear();
+	}
+
+}
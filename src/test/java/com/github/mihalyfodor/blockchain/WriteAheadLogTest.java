@@ -0,0 +1,189 @@
+/**
+ * 
+ */
+package com.github.mihalyfodor.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Mihaly Fodor
+ *
+ */
+public class WriteAheadLogTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testReplayRestoresUnspentOutputs() throws Exception {
+		
+		File file = folder.newFile("utxo.log");
+		TransactionOutput kept = new TransactionOutput("Wallet V", 10, "tx1");
+		TransactionOutput spent = new TransactionOutput("Wallet V", 20, "tx1");
+		
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.ALWAYS, 0)) {
+			UtxoSet unspentOutputs = new UtxoSet();
+			unspentOutputs.attachLog(log);
+			unspentOutputs.add(kept);
+			unspentOutputs.add(spent);
+			unspentOutputs.spend(spent.getId());
+			unspentOutputs.commit();
+		}
+		
+		// a crash in the middle of a write leaves a partial record behind
+		Files.write(file.toPath(), new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+		
+		UtxoSet recovered = new UtxoSet();
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.ALWAYS, 0)) {
+			log.replay(recovered);
+		}
+		
+		assertEquals(1, recovered.size());
+		assertNotNull(recovered.get(kept.getId()));
+		assertNull(recovered.get(spent.getId()));
+	}
+	
+	@Test
+	public void testConcurrentWritersShareCommits() throws Exception {
+		
+		File file = folder.newFile("group.log");
+		int writers = 8;
+		int recordsPerWriter = 500;
+		
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.PERIODIC, 5)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int writer = 0; writer < writers; writer++) {
+				String origin = "tx-writer-" + writer;
+				Thread thread = new Thread(() -> {
+					for (int i = 0; i < recordsPerWriter; i++) {
+						TransactionOutput output = new TransactionOutput("Wallet W", i, origin);
+						log.awaitCommitted(log.logTransaction(Collections.singletonList(output), Collections.emptyList()));
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			
+			// writers arriving during a round share the next one
+			assertTrue(log.getFlushCount() < writers * recordsPerWriter);
+		}
+		
+		UtxoSet recovered = new UtxoSet();
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.NEVER, 0)) {
+			log.replay(recovered);
+		}
+		assertEquals(writers * recordsPerWriter, recovered.size());
+	}
+	
+	@Test
+	public void testTornTransactionIsDroppedWhole() throws Exception {
+		
+		File file = folder.newFile("torn.log");
+		TransactionOutput input = new TransactionOutput("Wallet AO", 30, "txAO-in");
+		TransactionOutput payment = new TransactionOutput("Wallet AP", 20, "txAO-out");
+		TransactionOutput change = new TransactionOutput("Wallet AO", 10, "txAO-out");
+		
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.ALWAYS, 0)) {
+			UtxoSet unspentOutputs = new UtxoSet();
+			unspentOutputs.attachLog(log);
+			unspentOutputs.add(input);
+			assertTrue(unspentOutputs.apply(Arrays.asList(payment, change), Collections.singletonList(input.getId())));
+			unspentOutputs.commit();
+		}
+		
+		// the crash cut the last transaction short, after its first output was written
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 8);
+		}
+		
+		UtxoSet recovered = new UtxoSet();
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.ALWAYS, 0)) {
+			log.replay(recovered);
+		}
+		
+		assertEquals(1, recovered.size());
+		assertNotNull(recovered.get(input.getId()));
+		assertNull(recovered.get(payment.getId()));
+		assertNull(recovered.get(change.getId()));
+	}
+	
+	@Test
+	public void testConcurrentTransactionsThroughTheSet() throws Exception {
+		
+		File file = folder.newFile("concurrent.log");
+		int writers = 8;
+		int outputCount = 500;
+		UtxoSet unspentOutputs = new UtxoSet();
+		AtomicInteger accepted = new AtomicInteger();
+		
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.PERIODIC, 5)) {
+			unspentOutputs.attachLog(log);
+			List<String> ids = new ArrayList<>();
+			for (int i = 0; i < outputCount; i++) {
+				TransactionOutput output = new TransactionOutput("Wallet AN", 1, "txAN" + i);
+				unspentOutputs.add(output);
+				ids.add(output.getId());
+			}
+			
+			// every writer tries to spend every output, only one may have each
+			List<Thread> threads = new ArrayList<>();
+			for (int writer = 0; writer < writers; writer++) {
+				String origin = "txAN-writer-" + writer;
+				Thread thread = new Thread(() -> {
+					for (String id : ids) {
+						TransactionOutput created = new TransactionOutput("Wallet AN", 1, origin + id);
+						if (unspentOutputs.apply(Collections.singletonList(created), Collections.singletonList(id))) {
+							accepted.incrementAndGet();
+						}
+						unspentOutputs.commit();
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+		
+		assertEquals(outputCount, accepted.get());
+		assertEquals(outputCount, unspentOutputs.size());
+		
+		UtxoSet recovered = new UtxoSet();
+		try (WriteAheadLog log = new WriteAheadLog(file.toPath(), FsyncPolicy.NEVER, 0)) {
+			log.replay(recovered);
+		}
+		Set<String> expected = new HashSet<>();
+		for (TransactionOutput output : unspentOutputs.values()) {
+			expected.add(output.getId());
+		}
+		Set<String> replayed = new HashSet<>();
+		for (TransactionOutput output : recovered.values()) {
+			replayed.add(output.getId());
+		}
+		assertEquals(expected, replayed);
+	}
+
+}